@@ -35,7 +35,7 @@ public class Args {
     }
     
     public String value() {
-      return "";
+      return name;
     }
 
     public Class<? extends Annotation> annotationType() {
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Builds many composites from one factory method at once. The factory and the
+ * method are resolved once per batch rather than on every call through the
+ * factory proxy. The compiled composition is shared by all composites as
+ * usual, so the batch does no per-composite setup beyond wiring the
+ * composites themselves.
+ * <p>
+ * A batch can also be streamed from an unbounded source of arguments. The
+ * products are built as the consumer pulls them, so nothing is materialized
+ * up front and a slow consumer holds back the source.
+ * <p>
+ * The arguments are checked against the parameter types of the method before
+ * they are used - all of them before a batch is built and each one before its
+ * product is streamed. Exceptions declared by the factory method are thrown as
+ * they are, just like a call through the factory, even though the batch
+ * methods don't declare them.
+ * <p>
+ * Memoized and pooled factories serve the batch from their cache or pool.
+ * Lazy products are not deferred - a batch always builds its products.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositeBatch {
+  private CompositeBatch() {
+  }
+  
+  /**
+   * Builds the products one after the other on the calling thread.
+   * 
+   * @param factory a factory created by a composition binding.
+   * @param method the factory method to call.
+   * @param args the arguments of every call.
+   * @return the products in the order of {@code args}.
+   */
+  public static List<Object> build(Object factory, Method method, Collection<Object[]> args) {
+    CompositeFactory<?> handler = handler(factory);
+    CompositeFactoryMethod impl = method(handler, method);
+    for (Object[] call : args) {
+      check(impl, call);
+    }
+    
+    List<Object> products = new ArrayList<Object>(args.size());
+    for (Object[] call : args) {
+      products.add(build(handler, impl, call));
+    }
+    return products;
+  }
+  
+  /**
+   * Builds the products in parallel on {@code executor}. The batch is split
+   * into a few slices per processor and the calling thread waits for all of
+   * them. If some slices fail the first failure is thrown once all are done.
+   * 
+   * @param factory a factory created by a composition binding.
+   * @param method the factory method to call.
+   * @param args the arguments of every call.
+   * @param executor runs the slices of the batch.
+   * @return the products in the order of {@code args}.
+   */
+  public static List<Object> build(Object factory, Method method, Collection<Object[]> args,
+      ExecutorService executor) {
+    
+    final CompositeFactory<?> handler = handler(factory);
+    final CompositeFactoryMethod impl = method(handler, method);
+    
+    final Object[][] calls = args.toArray(new Object[args.size()][]);
+    for (Object[] call : calls) {
+      check(impl, call);
+    }
+    final Object[] products = new Object[calls.length];
+    
+    int slices = Math.min(calls.length, 4 * Runtime.getRuntime().availableProcessors());
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(slices);
+    for (int s = 0; s < slices; s++) {
+      final int from = (int) ((long) calls.length * s / slices);
+      final int to = (int) ((long) calls.length * (s + 1) / slices);
+      
+      tasks.add(new Callable<Void>() {
+        public Void call() {
+          for (int i = from; i < to; i++) {
+            products[i] = build(handler, impl, calls[i]);
+          }
+          return null;
+        }
+      });
+    }
+    
+    List<Future<Void>> done;
+    try {
+      done = executor.invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while building a batch of " + impl.method(), e);
+    }
+    
+    for (Future<Void> slice : done) {
+      try {
+        slice.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while building a batch of " + impl.method(), e);
+      } catch (ExecutionException e) {
+        throw unwrap(e);
+      }
+    }
+    
+    return Arrays.asList(products);
+  }
+  
+  /**
+   * Builds each product on the calling thread when the consumer asks for it.
+   * 
+   * @param factory a factory created by a composition binding.
+   * @param method the factory method to call.
+   * @param args the arguments of every call.
+   * @return the products in the order of {@code args}.
+   */
+  public static Iterator<Object> stream(Object factory, Method method, 
+      final Iterator<Object[]> args) {
+    
+    final CompositeFactory<?> handler = handler(factory);
+    final CompositeFactoryMethod impl = method(handler, method);
+    
+    return new Iterator<Object>() {
+      public boolean hasNext() {
+        return args.hasNext();
+      }
+
+      public Object next() {
+        Object[] call = args.next();
+        check(impl, call);
+        return build(handler, impl, call);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+  
+  /**
+   * Builds the products on {@code executor} ahead of the consumer. At most
+   * {@code window} products are built or waiting to be consumed at any time.
+   * A failed product is thrown when the consumer reaches it.
+   * 
+   * @param factory a factory created by a composition binding.
+   * @param method the factory method to call.
+   * @param args the arguments of every call.
+   * @param executor builds the products.
+   * @param window how many products may be in flight.
+   * @return the products in the order of {@code args}.
+   */
+  public static Iterator<Object> stream(Object factory, Method method, 
+      final Iterator<Object[]> args, final ExecutorService executor, final int window) {
+    
+    if (window <= 0) {
+      throw new IllegalArgumentException("Stream window must be positive: " + window);
+    }
+    
+    final CompositeFactory<?> handler = handler(factory);
+    final CompositeFactoryMethod impl = method(handler, method);
+    
+    return new Iterator<Object>() {
+      private final Queue<Future<Object>> inFlight = new LinkedList<Future<Object>>();
+      
+      public boolean hasNext() {
+        return !inFlight.isEmpty() || args.hasNext();
+      }
+
+      public Object next() {
+        fill();
+        Future<Object> head = inFlight.poll();
+        if (head == null) {
+          throw new NoSuchElementException();
+        }
+        
+        try {
+          return head.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while streaming " + impl.method(), e);
+        } catch (ExecutionException e) {
+          throw unwrap(e);
+        }
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+      
+      private void fill() {
+        while (inFlight.size() < window && args.hasNext()) {
+          final Object[] call = args.next();
+          check(impl, call);
+          inFlight.add(executor.submit(new Callable<Object>() {
+            public Object call() {
+              return build(handler, impl, call);
+            }
+          }));
+        }
+      }
+    };
+  }
+  
+  /**
+   * Throws the cause of a failed build. It was thrown by {@link #build}, so it
+   * is unchecked or declared by the factory method.
+   */
+  private static RuntimeException unwrap(ExecutionException e) {
+    return CompositeBatch.<RuntimeException>rethrow(e.getCause());
+  }
+  
+  /**
+   * Throws {@code thrown} as it is, even if it is a checked exception.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T extends Throwable> RuntimeException rethrow(Throwable thrown) throws T {
+    throw (T) thrown;
+  }
+  
+  /**
+   * Checks that {@code args} can be passed to the factory method.
+   */
+  private static void check(CompositeFactoryMethod impl, Object[] args) {
+    Class<?>[] types = impl.method().getParameterTypes();
+    if ((args != null ? args.length : 0) != types.length) {
+      throw new IllegalArgumentException(impl.method() + " takes " + types.length
+          + " arguments but got " + Arrays.toString(args));
+    }
+    
+    for (int p = 0; p < types.length; p++) {
+      Class<?> type = types[p];
+      if (args[p] == null ? type.isPrimitive() : !wrap(type).isInstance(args[p])) {
+        throw new IllegalArgumentException("Argument " + p + " of " + impl.method() 
+            + " must be a " + type.getName() + " but got " + args[p]);
+      }
+    }
+  }
+  
+  private static Class<?> wrap(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return type;
+    }
+    return type == int.class ? Integer.class
+      : type == long.class ? Long.class
+      : type == boolean.class ? Boolean.class
+      : type == double.class ? Double.class
+      : type == float.class ? Float.class
+      : type == char.class ? Character.class
+      : type == byte.class ? Byte.class
+      : type == short.class ? Short.class
+      : Void.class;
+  }
+  
+  /**
+   * Builds a product from arguments that passed the check. Exceptions that
+   * reach here are unchecked or declared by the factory method.
+   */
+  private static Object build(CompositeFactory<?> handler, CompositeFactoryMethod impl, 
+      Object[] args) {
+    
+    try {
+      return handler.build(impl, args);
+    } catch (Throwable e) {
+      throw CompositeBatch.<RuntimeException>rethrow(e);
+    }
+  }
+  
+  private static CompositeFactory<?> handler(Object factory) {
+    InvocationHandler handler = Proxy.isProxyClass(factory.getClass()) 
+      ? Proxy.getInvocationHandler(factory) 
+      : null;
+    
+    if (!(handler instanceof CompositeFactory)) {
+      throw new IllegalArgumentException(factory + " is not a CompositeFactory");
+    }
+    return (CompositeFactory<?>) handler;
+  }
+  
+  private static CompositeFactoryMethod method(CompositeFactory<?> handler, Method method) {
+    CompositeFactoryMethod impl = handler.method(method);
+    if (impl == null) {
+      throw new IllegalArgumentException(method + " is not a method of " + handler);
+    }
+    return impl;
+  }
+}
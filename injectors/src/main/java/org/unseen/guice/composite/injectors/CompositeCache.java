@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memoizes the products of composite factories by the arguments they were
+ * called with. Products are kept per factory method and per enclosing
+ * composite. The least recently used product is evicted when the cache grows
+ * past its size bound and products older than the time-to-live are rebuilt on
+ * the next call.
+ * <p>
+ * A product is dropped when its composite is closed. The enclosing composites
+ * are held weakly and the products built into a closed one are not served.
+ * <p>
+ * Large caches are split into independently locked segments so that threads
+ * calling the factory with different arguments don't queue on one lock. The
+ * size bound and the LRU order are then kept per segment.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositeCache {
+  /** Caches smaller than this per segment are not split */
+  private static final int MIN_SEGMENT_SIZE = 64;
+  private static final int MAX_SEGMENTS = 16;
+  
+  private final long ttlNanos;
+  private final Segment[] segments;
+  
+  /**
+   * @param maxSize maximum number of products to keep
+   */
+  public CompositeCache(int maxSize) {
+    this(maxSize, 0, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * @param maxSize maximum number of products to keep
+   * @param ttl time a product is kept after it is built, zero to keep forever
+   * @param unit
+   */
+  public CompositeCache(int maxSize, long ttl, TimeUnit unit) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    }
+    if (ttl < 0) {
+      throw new IllegalArgumentException("Time to live must not be negative: " + ttl);
+    }
+    
+    this.ttlNanos = unit.toNanos(ttl);
+    
+    /* A power of two so that the segment is picked by masking the hash */
+    int count = 1;
+    while (count < MAX_SEGMENTS && maxSize/(count*2) >= MIN_SEGMENT_SIZE) {
+      count *= 2;
+    }
+    
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      /* Spread the remainder so that the segments add up to maxSize */
+      segments[i] = new Segment(maxSize/count + (i < maxSize%count ? 1 : 0));
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "CompositeCache(size=" + size() + ", hits=" + hits() + ", misses=" + misses() + ")";
+  }
+  
+  public long hits() {
+    long sum = 0;
+    for (Segment seg : segments) {
+      synchronized (seg) {
+        sum += seg.hits;
+      }
+    }
+    return sum;
+  }
+  
+  public long misses() {
+    long sum = 0;
+    for (Segment seg : segments) {
+      synchronized (seg) {
+        sum += seg.misses;
+      }
+    }
+    return sum;
+  }
+  
+  public int size() {
+    int sum = 0;
+    for (Segment seg : segments) {
+      synchronized (seg) {
+        sum += seg.size();
+      }
+    }
+    return sum;
+  }
+  
+  public void clear() {
+    for (Segment seg : segments) {
+      synchronized (seg) {
+        seg.clear();
+      }
+    }
+  }
+  
+  /**
+   * Drops all products whose time-to-live has passed and the products built
+   * into enclosing composites that are closed or collected.
+   */
+  public void evictExpired() {
+    long now = System.nanoTime();
+    for (Segment seg : segments) {
+      synchronized (seg) {
+        for (Iterator<Map.Entry<CallKey, Entry>> iter = seg.entrySet().iterator(); iter.hasNext();) {
+          Map.Entry<CallKey, Entry> ent = iter.next();
+          if (expired(ent.getValue(), now) || ent.getKey().stale()) {
+            iter.remove();
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Returns the product memoized for this call or builds a new one. The
+   * product is built outside of the segment lock so that slow compositions do
+   * not block unrelated calls. Concurrent misses on the same arguments keep the
+   * product that was stored first. Calls into a closed composite are not
+   * memoized.
+   * 
+   * @param method
+   * @param template
+   * @param context
+   * @param args
+   * @return
+   */
+  Object get(CompositeFactoryMethod method, CompositionTemplate template, 
+      CompositeInstance context, Object[] args) {
+    
+    if (context != null && context.isClosed()) {
+      return method.invoke(template, context, args);
+    }
+    
+    CallKey key = new CallKey(method, context, args);
+    Segment seg = segmentFor(key);
+    
+    Entry hit = null;
+    synchronized (seg) {
+      Entry entry = seg.get(key);
+      if (entry != null) {
+        if (!expired(entry, System.nanoTime())) {
+          hit = entry;
+        } else {
+          seg.remove(key);
+        }
+      }
+      if (hit != null) {
+        seg.hits++;
+      } else {
+        seg.misses++;
+      }
+    }
+    if (hit != null) {
+      template.served(method);
+      return hit.product;
+    }
+    
+    /* Drops the product when its composite is closed */
+    Entry built = new Entry(seg, key);
+    Object product = method.invoke(template, context, args, built);
+    
+    synchronized (seg) {
+      Entry entry = seg.get(key);
+      if (entry != null && !expired(entry, System.nanoTime())) {
+        return entry.product;
+      }
+      if (!built.closed) {
+        built.product = product;
+        built.built = System.nanoTime();
+        seg.put(key, built);
+      }
+      return product;
+    }
+  }
+  
+  private Segment segmentFor(CallKey key) {
+    /* Mix the high bits in since the low bits of identity hashes are weak */
+    int h = key.hash;
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return segments[h & (segments.length - 1)];
+  }
+  
+  private boolean expired(Entry entry, long now) {
+    return ttlNanos != 0 && now - entry.built >= ttlNanos;
+  }
+  
+  /**
+   * An LRU map guarded by its own monitor.
+   */
+  private static class Segment extends LinkedHashMap<CallKey, Entry> {
+    private static final long serialVersionUID = 1L;
+    
+    private final int maxSize;
+    long hits;
+    long misses;
+    
+    Segment(int maxSize) {
+      /* Access order turns the map into an LRU list */
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+    
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<CallKey, Entry> eldest) {
+      return size() > maxSize;
+    }
+  }
+  
+  /**
+   * A memoized product. Runs when the composite of the product is closed.
+   * Guarded by the monitor of its segment.
+   */
+  private static class Entry implements Runnable {
+    private final Segment seg;
+    private final CallKey key;
+    Object product;
+    long built;
+    boolean closed;
+    
+    Entry(Segment seg, CallKey key) {
+      this.seg = seg;
+      this.key = key;
+    }
+    
+    public void run() {
+      synchronized (seg) {
+        closed = true;
+        if (seg.get(key) == this) {
+          seg.remove(key);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Identifies a factory call. The arguments are copied so that callers can
+   * reuse their arrays. The enclosing composite is held weakly - once it is
+   * collected the key matches no other key.
+   */
+  private static class CallKey {
+    private final CompositeFactoryMethod method;
+    private final WeakReference<CompositeInstance> context;
+    private final Object[] args;
+    private final int hash;
+    
+    CallKey(CompositeFactoryMethod method, CompositeInstance context, Object[] args) {
+      this.method = method;
+      this.context = context != null ? new WeakReference<CompositeInstance>(context) : null;
+      this.args = args != null ? args.clone() : null;
+      
+      int h = method.hashCode();
+      h = 31*h + (context != null ? System.identityHashCode(context) : 0);
+      h = 31*h + Arrays.hashCode(args);
+      this.hash = h;
+    }
+    
+    /**
+     * @return true if the enclosing composite is closed or collected.
+     */
+    boolean stale() {
+      if (context == null) {
+        return false;
+      }
+      CompositeInstance ctx = context.get();
+      return ctx == null || ctx.isClosed();
+    }
+    
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CallKey)) {
+        return false;
+      }
+      
+      CallKey other = (CallKey) o;
+      if (method != other.method || !Arrays.equals(args, other.args)) {
+        return false;
+      }
+      if (context == null || other.context == null) {
+        return context == other.context;
+      }
+      
+      CompositeInstance ctx = context.get();
+      return ctx != null && ctx == other.context.get();
+    }
+  }
+}
@@ -20,54 +20,53 @@ import static com.google.inject.internal.BytecodeGen.getClassLoader;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.HashMap;
-import java.util.Map;
 
-import com.google.inject.ConfigurationException;
-import com.google.inject.Injector;
-import com.google.inject.Module;
-import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
-import com.google.inject.internal.Errors;
-import com.google.inject.internal.ErrorsException;
 
 /**
+ * Backend of a dynamically generated composite factory.
+ * 
  * @author rinsvind@gmail.com (Todor Boev)
  */
 public class CompositeFactory<F> implements InvocationHandler {
   private final F proxy;
-  private final Injector parent;
-  private final Iterable<Module> composed;
-  private final Map<Method, CompositeFactoryMethod> methods; 
+  /** The compiled composition */
+  private final CompositionTemplate template;
+  /** The composite in which to nest the new composites */
+  private final CompositeInstance context;
+  /** Memoizes the products by arguments, null if every call builds a composite */
+  private final CompositeCache cache;
+  /** Holds composites built ahead of time, null if not pooled */
+  private final CompositePool pool;
+  /** Defer building interface-typed products until they are used */
+  private final boolean lazy;
   
   /**
    * @param <F>
    * @param factory
-   * @param composed
-   * @param parent
+   * @param template
+   * @param context
+   * @param cache
+   * @param pool
+   * @param lazy
    * @return
    */
-  public static <F> F get(Class<F> factory, Iterable<Module> composed, Injector parent) {
-    return new CompositeFactory<F>(factory, composed, parent).proxy();
+  public static <F> F get(Class<F> factory, CompositionTemplate template, 
+      CompositeInstance context, CompositeCache cache, CompositePool pool, boolean lazy) {
+    return new CompositeFactory<F>(factory, template, context, cache, pool, lazy).proxy();
   }
   
   /**
    * @param factory
    */
-  private CompositeFactory(Class<F> factory, Iterable<Module> composed, Injector parent) {
-    this.parent = parent;
-    this.composed = composed;
+  private CompositeFactory(Class<F> factory, CompositionTemplate template, 
+      CompositeInstance context, CompositeCache cache, CompositePool pool, boolean lazy) {
     
-    Errors errors = new Errors();
-    try {
-      this.methods = new HashMap<Method, CompositeFactoryMethod>();
-      // TODO: also grab methods from superinterfaces
-      for (Method method : factory.getMethods()) {
-        methods.put(method, new CompositeFactoryMethod(method, errors));
-      }
-    } catch (ErrorsException e) {
-      throw new ConfigurationException(e.getErrors().getMessages());
-    }
+    this.template = template;
+    this.context = context;
+    this.cache = cache;
+    this.pool = pool;
+    this.lazy = lazy;
     
     /*
      * FIX Can cause trouble under OSGi. The problem here is that this class
@@ -96,10 +95,58 @@ public class CompositeFactory<F> implements InvocationHandler {
       return method.invoke(this, args);
     }
 
-    /* For the factory methods use an appropriate binding */
-    Provider<?> provider = methods.get(method).invoke(parent, composed, args).getProvider();
+    if (lazy && LazyProduct.canDefer(method)) {
+      return LazyProduct.get(this, method, args);
+    }
+    
+    return build(method, args);
+  }
+  
+  /**
+   * @param method
+   * @return the implementation of {@code method} or null if it is not a
+   *         factory method.
+   */
+  CompositeFactoryMethod method(Method method) {
+    return template.method(method);
+  }
+  
+  /**
+   * Builds the product of {@code method} for this call.
+   * 
+   * @param method
+   * @param args
+   * @return
+   * @throws Throwable
+   */
+  Object build(Method method, Object[] args) throws Throwable {
+    return build(template.method(method), args);
+  }
+  
+  /**
+   * Builds the product of {@code impl} without looking it up. Used directly by
+   * batches that build many products of the same method.
+   * 
+   * @param impl
+   * @param args
+   * @return
+   * @throws Throwable
+   */
+  Object build(CompositeFactoryMethod impl, Object[] args) throws Throwable {
+    Method method = impl.method();
     try {
-      return provider.get();
+      /* Nested composites depend on their context and are never pooled */
+      if (pool != null && context == null) {
+        Object product = pool.take(impl);
+        if (product != null) {
+          template.served(impl);
+          return product;
+        }
+      }
+      
+      return cache != null 
+        ? cache.get(impl, template, context, args) 
+        : impl.invoke(template, context, args);
     } catch (ProvisionException e) {
       /* If this is an exception declared by the factory method, throw it as-is */
       if (e.getErrorMessages().size() == 1) {
@@ -26,16 +26,12 @@ import java.util.List;
 
 import org.unseen.guice.composite.injectors.Arg;
 
-import com.google.inject.AbstractModule;
-import com.google.inject.Binder;
-import com.google.inject.Binding;
 import com.google.inject.Injector;
 import com.google.inject.Key;
-import com.google.inject.Module;
+import com.google.inject.Provider;
 import com.google.inject.TypeLiteral;
 import com.google.inject.internal.Errors;
 import com.google.inject.internal.ErrorsException;
-import com.google.inject.util.Providers;
 
 /**
  * Implements a single factory method.
@@ -46,6 +42,8 @@ public class CompositeFactoryMethod {
   private final Method method;
   private final Key<?> result;
   private final List<Key<?>> params;
+  /** Provides the result from the template injector - null until prepared */
+  private final Provider<?> provider;
   
   /**
    * @param method
@@ -67,36 +65,128 @@ public class CompositeFactoryMethod {
     
     /* The wrapped list is immutable */
     this.params = Arrays.asList(paramArray);
+    this.provider = null;
+  }
+  
+  private CompositeFactoryMethod(CompositeFactoryMethod signature, Provider<?> provider) {
+    this.method = signature.method;
+    this.result = signature.result;
+    this.params = signature.params;
+    this.provider = provider;
+  }
+  
+  public Method method() {
+    return method;
+  }
+  
+  public Key<?> returnType() {
+    return result;
+  }
+  
+  public List<Key<?>> parameterTypes() {
+    return params;
+  }
+  
+  /**
+   * Resolve the result once the template injector of the composition is built.
+   * The signature itself is shared by all compositions of the factory and is
+   * left untouched.
+   * 
+   * @param injector
+   * @return a copy of this method bound to {@code injector}.
+   */
+  public CompositeFactoryMethod prepare(Injector injector) {
+    return new CompositeFactoryMethod(this, injector.getProvider(result));
   }
   
   /**
-   * Create a new injector based at the parent, populate it with the
-   * parameters and the user definitions and return a binding to the class
-   * that the factory must produce.
+   * Activate a new composite nested in {@code context}, seed it with the
+   * parameters and provision the object that the factory must produce.
    * 
-   * @param parent
-   * @param composed
+   * @param template
+   * @param context
    * @param args
    * @return
    */
-  public Binding<?> invoke(Injector parent, final Iterable<Module> composed, final Object[] args) {
-    return parent.createChildInjector(new AbstractModule() {
-      @SuppressWarnings("unchecked")
-      protected void configure() {
-        Binder binder = binder().withSource(method);
-
-        /* Introduce the external parameters into the composition instance. */
-        int p = 0;
-        for (Key<?> paramKey : params) {
-          binder.bind((Key) paramKey).toProvider(Providers.of(args[p++]));
-        }
-
-        /* Add the content of the composition */
-        for (Module m : composed) {
-          install(m);
+  public Object invoke(CompositionTemplate template, CompositeInstance context, Object[] args) {
+    return invoke(template, context, args, null);
+  }
+  
+  /**
+   * Like {@link #invoke(CompositionTemplate, CompositeInstance, Object[])} but
+   * also runs {@code closed} when the new composite is closed.
+   * 
+   * @param template
+   * @param context
+   * @param args
+   * @param closed
+   * @return
+   */
+  Object invoke(CompositionTemplate template, CompositeInstance context, Object[] args,
+      Runnable closed) {
+    
+    CompositeMetrics metrics = template.metrics();
+    if (metrics == null) {
+      return invoke(template, context, args, closed, null);
+    }
+    
+    /* The end of each phase - a phase the call did not reach ends with the call */
+    long[] marks = new long[4];
+    marks[0] = System.nanoTime();
+    boolean failed = true;
+    try {
+      Object product = invoke(template, context, args, closed, marks);
+      failed = false;
+      return product;
+    } finally {
+      long end = System.nanoTime();
+      for (int i = 1; i < marks.length; i++) {
+        if (marks[i] == 0) {
+          marks[i] = end;
         }
       }
-    }).getBinding(result);
+      metrics.called(template.key(), method, marks[1] - marks[0], marks[2] - marks[1], 
+          marks[3] - marks[2], failed);
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private Object invoke(CompositionTemplate template, CompositeInstance context, Object[] args,
+      Runnable closed, long[] marks) {
+    
+    CompositeInstance active = CompositeInstance.activate(template.scope(), context);
+    try {
+      if (closed != null) {
+        active.onClose(closed);
+      }
+      
+      /* Introduce the external parameters into the composite. */
+      int p = 0;
+      for (Key<?> paramKey : params) {
+        active.seed((Key) paramKey, args[p++]);
+      }
+      if (marks != null) {
+        marks[1] = System.nanoTime();
+      }
+      
+      template.provisionEager();
+      if (marks != null) {
+        marks[2] = System.nanoTime();
+      }
+      
+      /*
+       * If factories of nested compositions are injected to satisfy this
+       * instantiation they will capture the instance we have activated just now.
+       */
+      Object product = provider.get();
+      template.wired(active);
+      if (marks != null) {
+        marks[3] = System.nanoTime();
+      }
+      return product;
+    } finally {
+      CompositeInstance.deactivate();
+    }
   }
 
   /**
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.io.Closeable;
+
+/**
+ * Ends the life of a single composite. Inject it into any object of a
+ * composition to get the handle of the composite that object belongs to.
+ * <p>
+ * Closing a composite runs the registered disposal callbacks and closes every
+ * singleton the composite constructed that implements {@link Closeable}, both
+ * in the reverse order of their registration or creation. The singletons are
+ * then dropped and factories of nested compositions that captured the
+ * composite refuse to build into it. Objects shared by all composites, the
+ * factory arguments and nested composites are left alone - close nested
+ * composites through their own handles. So are singletons obtained from
+ * providers, including {@code @Provides} methods, since a provider may hand
+ * out an object owned elsewhere. Register a callback to dispose of those.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public interface CompositeHandle extends Closeable {
+  /**
+   * @param callback called when the composite is closed.
+   * @throws IllegalStateException if the composite is already closed.
+   */
+  void onClose(Runnable callback);
+  
+  /**
+   * @return true if the composite has been closed.
+   */
+  boolean isClosed();
+  
+  /**
+   * Releases the composite. Closing it again has no effect. If some disposals
+   * fail the rest still run and the first failure is thrown at the end.
+   */
+  void close();
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import static java.util.Arrays.asList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.CreationException;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.spi.Message;
+
+/**
+ * The singleton cache of a single composite. A fresh instance is activated
+ * every time a factory method is called. The instance is kept after the
+ * creation completes only if the composite contains factories of nested
+ * compositions - these capture it as the parent of the composites they build.
+ * <p>
+ * Such an instance can be sealed once its composite is wired. The concurrent
+ * map is replaced by a compact table of keys and values that is copied on
+ * write. Reads stay lock-free and the rare singletons built later, when nested
+ * composites reach them, are added to a fresh copy.
+ * <p>
+ * The instance is also the {@link CompositeHandle} injected into the objects of
+ * its composite.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositeInstance implements CompositeHandle {
+  private static final ThreadLocal<CompositeInstance> ACTIVE = new ThreadLocal<CompositeInstance>();
+  /** Stands for null values which the cache map can't hold */
+  private static final Object NULL = new Object();
+
+  private final CompositeScope scope;
+  private final CompositeInstance parent;
+  /**
+   * This instance and its ancestors indexed by the depth of their scopes. Lets
+   * nested composites find the outer composites in constant time.
+   */
+  private final CompositeInstance[] lineage;
+  /** The objects of the composite while it is wired - null once sealed */
+  private volatile ConcurrentMap<Key<?>, Object> cache;
+  /** Keys and values in alternate slots of an open hash table - null until sealed */
+  private volatile Object[] table;
+  /** Disposal callbacks and owned closeable singletons in creation order - null if none */
+  private List<Closeable> disposables;
+  private volatile boolean closed;
+  /** The instance that was active on this thread before this one */
+  private CompositeInstance previous;
+
+  private CompositeInstance(CompositeScope scope, CompositeInstance parent) {
+    this.scope = scope;
+    this.parent = parent;
+    
+    int depth = scope.depth();
+    this.lineage = new CompositeInstance[depth + 1];
+    if (parent != null) {
+      System.arraycopy(parent.lineage, 0, lineage, 0, Math.min(depth, parent.lineage.length));
+    }
+    lineage[depth] = this;
+    
+    this.cache = new ConcurrentHashMap<Key<?>, Object>(8);
+  }
+
+  @Override
+  public String toString() {
+    return "CompositeInstance(" + scope + ")";
+  }
+
+  public CompositeScope scope() {
+    return scope;
+  }
+
+  public CompositeInstance parent() {
+    return parent;
+  }
+
+  /**
+   * Pre-loads the cache with the arguments of the factory method call.
+   * 
+   * @param <T>
+   * @param key
+   * @param val
+   */
+  public <T> void seed(Key<T> key, T val) {
+    ConcurrentMap<Key<?>, Object> cache = this.cache;
+    if (cache == null) {
+      throw new IllegalStateException(this + " is sealed");
+    }
+    if (cache.putIfAbsent(key, val != null ? val : NULL) != null) {
+      throw new CreationException(asList(new Message(key + " already seeded in " + this)));
+    }
+  }
+
+  /**
+   * Finds this instance or the nearest ancestor that belongs to {@code scope}.
+   * 
+   * @param scope
+   * @return the instance or null if {@code scope} is not among the ancestors.
+   */
+  public CompositeInstance find(CompositeScope scope) {
+    int depth = scope.depth();
+    CompositeInstance level = depth < lineage.length ? lineage[depth] : null;
+    return level != null && level.scope == scope ? level : null;
+  }
+
+  /**
+   * Searches for a cached object at the level of {@code scope}. If it fails to
+   * find it creates a new one and caches it at that level.
+   * 
+   * @param <T>
+   * @param key
+   * @param unscoped
+   * @param scope
+   * @param owned true if the composite closes the object when it is closed.
+   * @return the value of the key in the composite that owns {@code scope}.
+   */
+  public <T> T search(Key<T> key, Provider<T> unscoped, CompositeScope scope, boolean owned) {
+    CompositeInstance level = find(scope);
+    if (level == null) {
+      throw new CreationException(asList(new Message("No composite found for " + key
+          + " scoped as " + scope + " and searched in " + this.scope + " and it's parents")));
+    }
+    return level.provision(key, unscoped, owned);
+  }
+
+  /**
+   * Outer composites can be shared by many threads that build nested
+   * composites. Objects that are already cached are read without locking.
+   * Only a miss locks the level that owns the key so that the singletons of
+   * that level are created only once.
+   */
+  private <T> T provision(Key<T> key, Provider<T> unscoped, boolean owned) {
+    Object val = lookup(key);
+    if (val != null) {
+      return unmask(val);
+    }
+    return create(key, unscoped, owned);
+  }
+
+  private synchronized <T> T create(Key<T> key, Provider<T> unscoped, boolean owned) {
+    Object cached = lookup(key);
+    if (cached != null) {
+      return unmask(cached);
+    }
+    
+    if (closed) {
+      throw new CreationException(asList(new Message("Can't provision " + key + " in " + this
+          + " because it is closed")));
+    }
+    
+    /*
+     * Singletons of outer composites can be reached while a nested one is
+     * wired. Make this instance active while its singleton is built so that
+     * the singleton gets the handle and the nested factories of its own
+     * composite.
+     */
+    CompositeInstance active = ACTIVE.get();
+    if (active != this) {
+      ACTIVE.set(this);
+    }
+    
+    /*
+     * In case of cycles val would be a proxy cached by the looped call to
+     * provision(). Here we cache the real object over it.
+     */
+    T val;
+    try {
+      val = unscoped.get();
+    } finally {
+      if (active != this) {
+        ACTIVE.set(active);
+      }
+    }
+    
+    /* A linked key and its target cache the same object - close it once */
+    if (owned && val instanceof Closeable && !disposes(val)) {
+      dispose((Closeable) val);
+    }
+    
+    Object masked = val != null ? val : NULL;
+    
+    ConcurrentMap<Key<?>, Object> cache = this.cache;
+    if (cache != null) {
+      cache.put(key, masked);
+    } else {
+      table = put(table.clone(), key, masked);
+    }
+    return val;
+  }
+
+  /**
+   * Replaces the concurrent map with a compact table once the composite is
+   * wired. Only worth doing for instances that outlive the wiring.
+   */
+  public synchronized void seal() {
+    ConcurrentMap<Key<?>, Object> cache = this.cache;
+    if (cache == null || closed) {
+      return;
+    }
+    
+    Object[] sealed = new Object[2 * capacity(cache.size())];
+    for (Map.Entry<Key<?>, Object> ent : cache.entrySet()) {
+      insert(sealed, ent.getKey(), ent.getValue());
+    }
+    
+    /* Readers that still see the map find everything in it */
+    this.table = sealed;
+    this.cache = null;
+  }
+
+  public synchronized void onClose(final Runnable callback) {
+    if (closed) {
+      throw new IllegalStateException(this + " is closed");
+    }
+    
+    dispose(new Closeable() {
+      public void close() {
+        callback.run();
+      }
+    });
+  }
+  
+  public boolean isClosed() {
+    return closed;
+  }
+  
+  public void close() {
+    List<Closeable> disposed;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      
+      disposed = disposables;
+      disposables = null;
+      
+      /* Drop the singletons - the lookups miss and fail from now on */
+      ConcurrentMap<Key<?>, Object> cache = this.cache;
+      if (cache != null) {
+        cache.clear();
+      } else {
+        table = new Object[4];
+      }
+    }
+    
+    if (disposed == null) {
+      return;
+    }
+    
+    /* Dispose outside of the lock in case the disposals reach other composites */
+    RuntimeException failure = null;
+    for (int i = disposed.size() - 1; i >= 0; i--) {
+      try {
+        disposed.get(i).close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = new RuntimeException("Failed to close " + this, e);
+        }
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void dispose(Closeable disposable) {
+    if (disposables == null) {
+      disposables = new ArrayList<Closeable>(4);
+    }
+    disposables.add(disposable);
+  }
+
+  private boolean disposes(Object val) {
+    if (disposables != null) {
+      for (Closeable disposable : disposables) {
+        if (disposable == val) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Object lookup(Key<?> key) {
+    ConcurrentMap<Key<?>, Object> cache = this.cache;
+    if (cache != null) {
+      return cache.get(key);
+    }
+    
+    Object[] table = this.table;
+    int mask = table.length - 2;
+    for (int i = index(key, mask); table[i] != null; i = (i + 2) & mask) {
+      if (table[i].equals(key)) {
+        return table[i + 1];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Inserts into {@code table} or a larger copy of it when it is half full.
+   * 
+   * @return the table that holds the new entry.
+   */
+  private static Object[] put(Object[] table, Key<?> key, Object val) {
+    int size = 0;
+    for (int i = 0; i < table.length; i += 2) {
+      if (table[i] != null) {
+        size++;
+      }
+    }
+    
+    if (2 * (size + 1) > table.length / 2) {
+      Object[] grown = new Object[2 * capacity(size + 1)];
+      for (int i = 0; i < table.length; i += 2) {
+        if (table[i] != null) {
+          insert(grown, table[i], table[i + 1]);
+        }
+      }
+      table = grown;
+    }
+    
+    insert(table, key, val);
+    return table;
+  }
+
+  private static void insert(Object[] table, Object key, Object val) {
+    int mask = table.length - 2;
+    int i = index(key, mask);
+    while (table[i] != null) {
+      i = (i + 2) & mask;
+    }
+    table[i] = key;
+    table[i + 1] = val;
+  }
+
+  /** Even slot of the key in a table of {@code mask + 2} slots */
+  private static int index(Object key, int mask) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return (h << 1) & mask;
+  }
+
+  /** Smallest power of two that keeps {@code size} entries at most half full */
+  private static int capacity(int size) {
+    int cap = 2;
+    while (cap < 2 * size) {
+      cap <<= 1;
+    }
+    return cap;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T unmask(Object val) {
+    return val != NULL ? (T) val : null;
+  }
+
+  /**
+   * Called to set up the creation of a new composite. Factories called inline
+   * while the composite is wired activate their own instances on top of this
+   * one.
+   * 
+   * @param scope
+   * @param parent
+   * @return
+   */
+  public static CompositeInstance activate(CompositeScope scope, CompositeInstance parent) {
+    CompositeInstance ctx = new CompositeInstance(scope, parent);
+    ctx.previous = ACTIVE.get();
+    ACTIVE.set(ctx);
+    return ctx;
+  }
+
+  /**
+   * @return
+   */
+  public static boolean isActive() {
+    return ACTIVE.get() != null;
+  }
+
+  /**
+   * Called during the wiring of a composite to cache the new objects or to
+   * capture the active instance into factories of nested compositions.
+   * 
+   * @return
+   */
+  public static CompositeInstance active() {
+    CompositeInstance active = ACTIVE.get();
+    if (active == null) {
+      throw new CreationException(asList(new Message("No composite instance is active in this thread")));
+    }
+    return active;
+  }
+
+  /**
+   * Called at the end of the wiring of a composite to restore the instance
+   * that was active before it.
+   */
+  public static void deactivate() {
+    CompositeInstance active = ACTIVE.get();
+    if (active.previous != null) {
+      ACTIVE.set(active.previous);
+      active.previous = null;
+    } else {
+      ACTIVE.remove();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.reflect.Method;
+
+import com.google.inject.Key;
+
+/**
+ * Receives the timings of composite factories. Implementations must be cheap
+ * and thread safe - they are called inline on every factory call. A factory
+ * that is not instrumented does not read the clock at all. Factories are
+ * identified by the keys they are bound to, so that two bindings of the same
+ * interface are told apart.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public interface CompositeMetrics {
+  /**
+   * The phases of a factory call.
+   */
+  enum Phase {
+    /** Activating the composite and seeding it with the arguments */
+    SEED,
+    /** Building the singletons that are eager in the composite */
+    EAGER,
+    /** Building the product and whatever it reaches */
+    PROVISION
+  }
+  
+  /**
+   * Called once when the composition of {@code factory} is compiled against
+   * the injector that hosts it.
+   * 
+   * @param factory
+   * @param recordNanos time spent running the composed modules.
+   * @param compileNanos time spent building the injectors of the composition.
+   */
+  void compiled(Key<?> factory, long recordNanos, long compileNanos);
+  
+  /**
+   * Called after every call that built a composite. A failed call reports the
+   * phases up to the one that failed.
+   * 
+   * @param factory
+   * @param method
+   * @param seedNanos
+   * @param eagerNanos
+   * @param provisionNanos
+   * @param failed true if the call threw.
+   */
+  void called(Key<?> factory, Method method, long seedNanos, long eagerNanos, 
+      long provisionNanos, boolean failed);
+  
+  /**
+   * Called after every call that returned a memoized or pooled product
+   * without building a composite.
+   * 
+   * @param factory
+   * @param method
+   */
+  void served(Key<?> factory, Method method);
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps composites built ahead of time for the factory methods that take no
+ * arguments. A background thread tops up the pool of every such method once
+ * per refill period. The thread is started by the first call to the factory,
+ * not when the injector is created, so an injector that fails or is never used
+ * leaves no thread behind. It runs until {@link #shutdown()}. A call finds a
+ * ready composite unless the pool is exhausted, in which case the composite is
+ * built inline as usual. Only
+ * top-level factories draw from the pool - the composites of nested factories
+ * depend on the outer composite they are built into.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositePool {
+  private final int capacity;
+  private final long period;
+  private final TimeUnit unit;
+  private final AtomicLong hits;
+  private final AtomicLong exhaustions;
+  private final AtomicLong refills;
+  private final AtomicLong failures;
+  /** The ready composites of each pooled method */
+  private volatile Map<CompositeFactoryMethod, BlockingQueue<Object>> queues;
+  /** The composition the pool is filled from - null until attached */
+  private CompositionTemplate template;
+  /** Null until the first call */
+  private volatile ScheduledExecutorService refiller;
+  private boolean stopped;
+  
+  /**
+   * @param capacity the number of composites kept ready for each method.
+   * @param period how often the pool is topped up.
+   * @param unit
+   */
+  public CompositePool(int capacity, long period, TimeUnit unit) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Pool capacity must be positive: " + capacity);
+    }
+    if (period <= 0) {
+      throw new IllegalArgumentException("Refill period must be positive: " + period);
+    }
+    
+    this.capacity = capacity;
+    this.period = period;
+    this.unit = unit;
+    this.hits = new AtomicLong();
+    this.exhaustions = new AtomicLong();
+    this.refills = new AtomicLong();
+    this.failures = new AtomicLong();
+    this.queues = Collections.emptyMap();
+  }
+  
+  @Override
+  public String toString() {
+    return "CompositePool(size=" + size() + ", hits=" + hits() + ", exhaustions=" + exhaustions() 
+      + ", refills=" + refills() + ", failures=" + failures() + ")";
+  }
+  
+  public int capacity() {
+    return capacity;
+  }
+  
+  /**
+   * @return the number of composites ready right now.
+   */
+  public int size() {
+    int size = 0;
+    for (BlockingQueue<Object> queue : queues.values()) {
+      size += queue.size();
+    }
+    return size;
+  }
+  
+  /**
+   * @return calls served from the pool.
+   */
+  public long hits() {
+    return hits.get();
+  }
+  
+  /**
+   * @return calls that found the pool empty and built their composite inline.
+   */
+  public long exhaustions() {
+    return exhaustions.get();
+  }
+  
+  /**
+   * @return composites built by the background thread.
+   */
+  public long refills() {
+    return refills.get();
+  }
+  
+  /**
+   * @return background builds that failed. The pool retries on the next
+   *         period while the calls that find it empty report the failure.
+   */
+  public long failures() {
+    return failures.get();
+  }
+  
+  /**
+   * Stops the background thread and drops the ready composites. Later calls
+   * build their composites inline.
+   */
+  public synchronized void shutdown() {
+    stopped = true;
+    if (refiller != null) {
+      refiller.shutdownNow();
+    }
+    for (BlockingQueue<Object> queue : queues.values()) {
+      queue.clear();
+    }
+  }
+  
+  /**
+   * Called once the composition is compiled. The pool is filled from
+   * {@code template} once the factory is first called.
+   * 
+   * @param template
+   */
+  synchronized void attach(CompositionTemplate template) {
+    if (this.template != null) {
+      throw new IllegalStateException(this + " is already used by another factory");
+    }
+    
+    Map<CompositeFactoryMethod, BlockingQueue<Object>> pooled = 
+      new HashMap<CompositeFactoryMethod, BlockingQueue<Object>>();
+    for (CompositeFactoryMethod method : template.methods()) {
+      if (method.parameterTypes().isEmpty()) {
+        pooled.put(method, new ArrayBlockingQueue<Object>(capacity));
+      }
+    }
+    this.queues = pooled;
+    this.template = template;
+  }
+  
+  /**
+   * Starts the background thread unless it runs already or the pool is shut
+   * down.
+   * 
+   * @return true if the thread was started by this call.
+   */
+  private synchronized boolean start() {
+    if (refiller != null || stopped) {
+      return false;
+    }
+    
+    final CompositionTemplate template = this.template;
+    final Map<CompositeFactoryMethod, BlockingQueue<Object>> pooled = queues;
+    
+    refiller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "CompositePool(" + template.scope() + ")");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    
+    refiller.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        for (Map.Entry<CompositeFactoryMethod, BlockingQueue<Object>> entry : pooled.entrySet()) {
+          refill(template, entry.getKey(), entry.getValue());
+        }
+      }
+    }, 0, period, unit);
+    return true;
+  }
+  
+  /**
+   * @param method
+   * @return a ready composite or null if {@code method} is not pooled or the
+   *         pool is empty.
+   */
+  Object take(CompositeFactoryMethod method) {
+    /* The first call builds its own composite - the pool starts empty */
+    boolean first = refiller == null && start();
+    
+    BlockingQueue<Object> queue = queues.get(method);
+    if (queue == null) {
+      return null;
+    }
+    
+    Object product = first ? null : queue.poll();
+    (product != null ? hits : exhaustions).incrementAndGet();
+    return product;
+  }
+  
+  private void refill(CompositionTemplate template, CompositeFactoryMethod method, 
+      BlockingQueue<Object> queue) {
+    
+    while (queue.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+      Object product;
+      try {
+        product = method.invoke(template, null, null);
+      } catch (RuntimeException e) {
+        /* An exception would cancel the periodic refill */
+        failures.incrementAndGet();
+        return;
+      }
+      
+      /* Null products can't be queued and are cheap to build anyway */
+      if (product == null || !queue.offer(product)) {
+        return;
+      }
+      refills.incrementAndGet();
+    }
+  }
+}
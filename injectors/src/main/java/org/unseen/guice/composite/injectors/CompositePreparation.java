@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Stage;
+
+/**
+ * Prepares the compositions of many factories in parallel while the injector
+ * that hosts them is created. Guice builds the injectors of the compositions
+ * one at a time - each holds the lock of the host injector. Recording the
+ * composed modules, reflecting on the factory methods and analysing what
+ * varies between composites need no injector, so they run on the executor
+ * once the first factory is attached. By the time Guice reaches a factory its
+ * composition is usually ready to be built.
+ * <p>
+ * Only top-level compositions are prepared ahead of time. The analysis of a
+ * nested composition depends on the composition it is nested in.
+ * <p>
+ * The template injectors are still built by Guice, one at a time, when it
+ * attaches each factory. A template built on the executor could wait for an
+ * object the host injector has not injected yet while the host waits for the
+ * template. Nothing is built or called to warm up the compositions either -
+ * that would run the constructors of user objects.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositePreparation {
+  private final ExecutorService executor;
+  /** Factories registered but not yet submitted */
+  private final List<CompositeProvider<?>> pending;
+  private final AtomicLong prepared;
+  private final AtomicLong failures;
+  
+  /**
+   * @param executor runs the preparation. The caller owns it and shuts it down.
+   */
+  public CompositePreparation(ExecutorService executor) {
+    this.executor = executor;
+    this.pending = new ArrayList<CompositeProvider<?>>();
+    this.prepared = new AtomicLong();
+    this.failures = new AtomicLong();
+  }
+  
+  @Override
+  public String toString() {
+    return "CompositePreparation(prepared=" + prepared() + ", failures=" + failures() + ")";
+  }
+  
+  /**
+   * @return compositions prepared by the executor.
+   */
+  public long prepared() {
+    return prepared.get();
+  }
+  
+  /**
+   * @return preparations that failed on the executor. Guice reports the same
+   *         errors when it reaches the factory.
+   */
+  public long failures() {
+    return failures.get();
+  }
+  
+  synchronized void add(CompositeProvider<?> provider) {
+    pending.add(provider);
+  }
+  
+  /**
+   * Called when the first factory is attached to its injector.
+   * 
+   * @param stage the stage of the injector.
+   */
+  void start(final Stage stage) {
+    List<CompositeProvider<?>> submitted;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      submitted = new ArrayList<CompositeProvider<?>>(pending);
+      pending.clear();
+    }
+    
+    for (final CompositeProvider<?> provider : submitted) {
+      try {
+        executor.execute(new Runnable() {
+          public void run() {
+            try {
+              provider.prepare(stage);
+              prepared.incrementAndGet();
+            } catch (RuntimeException e) {
+              /* Reported again when Guice attaches the factory */
+              failures.incrementAndGet();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        /* The factory is prepared when Guice attaches it */
+      }
+    }
+  }
+}
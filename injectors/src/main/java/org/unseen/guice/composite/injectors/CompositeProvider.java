@@ -16,12 +16,17 @@
 package org.unseen.guice.composite.injectors;
 
 import java.util.Arrays;
+import java.util.List;
 
 import com.google.inject.ConfigurationException;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.Provider;
+import com.google.inject.Stage;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
 import com.google.inject.spi.Message;
 
 /**
@@ -31,40 +36,241 @@ import com.google.inject.spi.Message;
  */
 public class CompositeProvider<F> implements Provider<F> {
   private final Class<F> factoryIface;
+  /** The key the factory is bound to */
+  private final Key<F> factoryKey;
   private final Iterable<Module> composed;
-  /** Dynamically generated implementation of the factory */
+  /** The elements of the composed modules recorded once */
+  private List<Element> recording;
+  /** The analysis of a top-level composition made ahead of time, null if not prepared */
+  private CompositionAnalysis analysis;
+  /** The composition compiled against the injector of this provider */
+  private CompositionTemplate template;
+  /** Dynamically generated implementation of the factory for top-level use */
   private F factory;
+  /** Memoizes the composites built by this provider, null if not memoized */
+  private CompositeCache cache;
+  /** Keeps composites built ahead of time, null if not pooled */
+  private CompositePool pool;
+  /** Build singletons only when a product reaches them */
+  private boolean lazy;
+  /** Build interface-typed products when they are first used */
+  private boolean deferred;
+  /** Compact the composites that outlive their wiring */
+  private boolean compact;
+  /** Prepares this and other compositions in parallel, null if not prepared ahead */
+  private CompositePreparation preparation;
+  /** Receives the timings of this composition, null if not instrumented */
+  private CompositeMetrics metrics;
+  /** Share the singletons that don't vary among all composites */
+  private boolean share;
   
   /**
    * @param factoryIface
    * @param composed
    */
   public CompositeProvider(Class<F> factoryIface, Iterable<Module> composed) {
-    this.factoryIface = factoryIface;
+    this(Key.get(factoryIface), composed);
+  }
+  
+  /**
+   * @param factoryKey the key the factory is bound to.
+   * @param composed
+   */
+  @SuppressWarnings("unchecked")
+  public CompositeProvider(Key<F> factoryKey, Iterable<Module> composed) {
+    this.factoryKey = factoryKey;
+    this.factoryIface = (Class<F>) factoryKey.getTypeLiteral().getRawType();
     this.composed = composed;
   }
 
   /**
-   * At injector-creation time, we initialize the invocation handler.
+   * Return the products memoized in {@code cache} rather than build a new
+   * composite on every factory call. Must be called before the provider is
+   * attached to an injector.
+   * 
+   * @param cache
+   */
+  public void memoizeIn(CompositeCache cache) {
+    checkNotInitialized();
+    if (pool != null) {
+      throw new IllegalStateException("A pooled CompositeFactory can't be memoized");
+    }
+    this.cache = cache;
+  }
+
+  /**
+   * Hand out composites that {@code pool} builds ahead of time for the factory
+   * methods without arguments. Must be called before the provider is attached
+   * to an injector.
+   * 
+   * @param pool
+   */
+  public void poolIn(CompositePool pool) {
+    checkNotInitialized();
+    if (cache != null) {
+      throw new IllegalStateException("A memoized CompositeFactory can't be pooled");
+    }
+    this.pool = pool;
+  }
+
+  /**
+   * Build the singletons of a composite only when the product reaches them
+   * even if the injector runs in {@link Stage#PRODUCTION}. Singletons bound
+   * with {@code asEagerSingleton()} are still built with every composite. Must
+   * be called before the provider is attached to an injector.
+   */
+  public void lazySingletons() {
+    checkNotInitialized();
+    this.lazy = true;
+  }
+
+  /**
+   * Return stand-ins for interface-typed products and build the composites
+   * behind them on the first method call. Must be called before the provider
+   * is attached to an injector.
+   */
+  public void lazyProducts() {
+    checkNotInitialized();
+    this.deferred = true;
+  }
+
+  /**
+   * Seal every composite once its product is built. Composites retained by
+   * the factories of nested compositions then keep their objects in a compact
+   * table rather than a concurrent map. Must be called before the provider is
+   * attached to an injector.
+   */
+  public void lowFootprint() {
+    checkNotInitialized();
+    this.compact = true;
+  }
+
+  /**
+   * Record and analyse the composition on the executor of {@code preparation}
+   * while the injector is created rather than when Guice reaches this
+   * provider. Must be called before the provider is attached to an injector.
+   * 
+   * @param preparation
+   */
+  public void preparedBy(CompositePreparation preparation) {
+    checkNotInitialized();
+    preparation.add(this);
+    this.preparation = preparation;
+  }
+
+  /**
+   * Report the compilation of the composition and the phases of every
+   * factory call to {@code metrics}. Must be called before the provider is
+   * attached to an injector.
+   * 
+   * @param metrics
+   */
+  public void instrumentBy(CompositeMetrics metrics) {
+    checkNotInitialized();
+    this.metrics = metrics;
+  }
+
+  /**
+   * Build the singletons that don't depend on the factory arguments once for
+   * all composites. They live as long as the injector and are not disposed
+   * when a composite is closed. Must be called before the provider is attached
+   * to an injector.
+   */
+  public void shareSingletons() {
+    checkNotInitialized();
+    this.share = true;
+  }
+
+  private void checkNotInitialized() {
+    if (template != null) {
+      throw new IllegalStateException("CompositeFactory already initialized with an Injector");
+    }
+  }
+
+  /**
+   * At injector-creation time, we initialize the invocation handler. Guice
+   * never tells a provider which injector calls {@link #get()}, so a provider
+   * compiles its composition against one injector only. The factory interface
+   * metadata is what injectors share.
    */
   @Inject
   public void setParent(Injector injector) {
-    if (factory != null) {
+    if (template != null) {
       throw new ConfigurationException(Arrays.asList(new Message(CompositeProvider.class,
-          "CompositeFactories may only be used in one Injector.")));
+          "CompositeFactories may only be used in one Injector. Configure the module that binds "
+          + factoryIface.getName() + " once for every injector.")));
     }
 
-    factory = CompositeFactory.get(factoryIface, composed, injector);
+    Stage stage = injector.getInstance(Stage.class);
+    if (preparation != null) {
+      preparation.start(stage);
+    }
+    
+    long start = metrics != null ? System.nanoTime() : 0;
+    
+    /* Waits for the preparation of this composition if it is in progress */
+    List<Element> elements;
+    CompositionAnalysis prepared;
+    synchronized (this) {
+      elements = record(stage);
+      prepared = analysis;
+    }
+    
+    long recorded = metrics != null ? System.nanoTime() : 0;
+    
+    template = new CompositionTemplate(factoryKey, elements, prepared, injector, lazy, compact,
+        metrics, share);
+    
+    if (metrics != null) {
+      metrics.compiled(factoryKey, recorded - start, System.nanoTime() - recorded);
+    }
+    factory = CompositeFactory.get(factoryIface, template, null, cache, pool, deferred);
+    
+    if (pool != null) {
+      pool.attach(template);
+    }
+  }
+
+  /**
+   * Called by the executor of a {@link CompositePreparation} to do the part of
+   * the work that needs no injector. Does nothing if the composition is
+   * already recorded.
+   * 
+   * @param stage the stage of the injector.
+   */
+  synchronized void prepare(Stage stage) {
+    if (recording != null) {
+      return;
+    }
+    analysis = CompositionTemplate.analyze(factoryIface, record(stage), share);
+  }
+
+  /**
+   * Runs the user modules once. Every composite is built from the recorded
+   * elements.
+   */
+  private synchronized List<Element> record(Stage stage) {
+    if (recording == null) {
+      recording = Elements.getElements(stage, composed);
+    }
+    return recording;
   }
 
   /**
    * @see com.google.inject.Provider#get()
    */
   public F get() {
-    if (factory == null) {
+    if (template == null) {
       throw new IllegalStateException("CompositeFactory not initalized with an Injector");
     }
     
-    return factory;
+    /*
+     * Factories injected while an outer composite is wired must build their
+     * composites into it.
+     */
+    CompositeInstance context = template.capture();
+    return context != null 
+      ? CompositeFactory.get(factoryIface, template, context, cache, pool, deferred) 
+      : factory;
   }
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Scope;
+
+/**
+ * Takes the place of the singleton scope inside a composition. Every composite
+ * built from the composition gets its own set of singletons, cached by the
+ * {@link CompositeInstance} that was activated for it.
+ * <p>
+ * The objects built in this scope belong to their composite and are closed
+ * with it. Objects the composite only caches, e.g. those of provider bindings
+ * that may hand out something shared, are scoped with {@link #borrowing()}.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositeScope implements Scope {
+  private final Class<?> factory;
+  /** How many compositions this one is nested in */
+  private final int depth;
+  /** Caches in the same composites without taking ownership */
+  private final Scope borrowing;
+
+  public CompositeScope(Class<?> factory, int depth) {
+    this.factory = factory;
+    this.depth = depth;
+    this.borrowing = new Scope() {
+      public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+        return provider(key, unscoped, false);
+      }
+      
+      @Override
+      public String toString() {
+        return "Borrowing" + CompositeScope.this;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "CompositeScope(" + factory.getName() + ")";
+  }
+
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * @return a scope that caches objects in the same composites as this one
+   *         but does not close them with the composite.
+   */
+  public Scope borrowing() {
+    return borrowing;
+  }
+
+  public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+    return provider(key, unscoped, true);
+  }
+
+  private <T> Provider<T> provider(final Key<T> key, final Provider<T> unscoped, 
+      final boolean owned) {
+    /*
+     * This provider can only be called while a composite is being wired. The
+     * CompositeInstance that holds the singletons of the composite is active
+     * at that time or is an ancestor of the active instance. Once the wiring
+     * completes there is no active instance and this provider won't work.
+     * The analysis of the composition rejects objects that inject providers
+     * of composite singletons.
+     */
+    return new Provider<T>() {
+      public T get() {
+        return CompositeInstance.active().search(key, unscoped, CompositeScope.this, owned);
+      }
+    };
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Key;
+
+/**
+ * The built-in {@link CompositeMetrics}. Keeps call and failure counters and
+ * a {@link LatencyHistogram} per phase for every method of every factory
+ * binding, and the compilation times of every factory binding.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositeStatistics implements CompositeMetrics {
+  private static final Phase[] PHASES = Phase.values();
+  
+  private final ConcurrentMap<MethodKey, MethodStatistics> methods;
+  private final ConcurrentMap<Key<?>, long[]> compilations;
+  
+  public CompositeStatistics() {
+    this.methods = new ConcurrentHashMap<MethodKey, MethodStatistics>();
+    this.compilations = new ConcurrentHashMap<Key<?>, long[]>();
+  }
+  
+  public void compiled(Key<?> factory, long recordNanos, long compileNanos) {
+    compilations.put(factory, new long[] { recordNanos, compileNanos });
+  }
+
+  public void called(Key<?> factory, Method method, long seedNanos, long eagerNanos,
+      long provisionNanos, boolean failed) {
+    
+    MethodStatistics stats = stats(factory, method);
+    stats.calls.incrementAndGet();
+    stats.builds.incrementAndGet();
+    if (failed) {
+      stats.failures.incrementAndGet();
+    }
+    stats.phases[Phase.SEED.ordinal()].record(seedNanos);
+    stats.phases[Phase.EAGER.ordinal()].record(eagerNanos);
+    stats.phases[Phase.PROVISION.ordinal()].record(provisionNanos);
+  }
+  
+  public void served(Key<?> factory, Method method) {
+    stats(factory, method).calls.incrementAndGet();
+  }
+  
+  /**
+   * @param factory
+   * @param method
+   * @return all calls of {@code method}, including the ones served by a cache
+   *         or a pool.
+   */
+  public long calls(Key<?> factory, Method method) {
+    MethodStatistics stats = find(factory, method);
+    return stats != null ? stats.calls.get() : 0;
+  }
+  
+  /**
+   * @param factory
+   * @param method
+   * @return the calls of {@code method} that built a composite.
+   */
+  public long builds(Key<?> factory, Method method) {
+    MethodStatistics stats = find(factory, method);
+    return stats != null ? stats.builds.get() : 0;
+  }
+  
+  /**
+   * @param factory
+   * @param method
+   * @return the calls of {@code method} that threw.
+   */
+  public long failures(Key<?> factory, Method method) {
+    MethodStatistics stats = find(factory, method);
+    return stats != null ? stats.failures.get() : 0;
+  }
+  
+  /**
+   * @param factory
+   * @param method
+   * @param phase
+   * @return the latencies of {@code phase} in the calls of {@code method} that
+   *         built a composite. An empty histogram if {@code method} was never
+   *         called.
+   */
+  public LatencyHistogram latency(Key<?> factory, Method method, Phase phase) {
+    MethodStatistics stats = find(factory, method);
+    return stats != null ? stats.phases[phase.ordinal()] : new LatencyHistogram();
+  }
+  
+  /**
+   * @param factory
+   * @return the nanoseconds spent running the composed modules of
+   *         {@code factory} or -1 if it was not compiled.
+   */
+  public long recordNanos(Key<?> factory) {
+    long[] times = compilations.get(factory);
+    return times != null ? times[0] : -1;
+  }
+  
+  /**
+   * @param factory
+   * @return the nanoseconds spent building the injectors of the composition
+   *         of {@code factory} or -1 if it was not compiled.
+   */
+  public long compileNanos(Key<?> factory) {
+    long[] times = compilations.get(factory);
+    return times != null ? times[1] : -1;
+  }
+  
+  /**
+   * @return the statistics of {@code method} or null if it was never called.
+   *         Queries must not fill the map with methods nobody calls.
+   */
+  private MethodStatistics find(Key<?> factory, Method method) {
+    return methods.get(new MethodKey(factory, method));
+  }
+  
+  private MethodStatistics stats(Key<?> factory, Method method) {
+    MethodKey key = new MethodKey(factory, method);
+    MethodStatistics stats = methods.get(key);
+    if (stats == null) {
+      MethodStatistics fresh = new MethodStatistics();
+      stats = methods.putIfAbsent(key, fresh);
+      if (stats == null) {
+        stats = fresh;
+      }
+    }
+    return stats;
+  }
+  
+  /**
+   * A method of a factory binding.
+   */
+  private static class MethodKey {
+    private final Key<?> factory;
+    private final Method method;
+    
+    MethodKey(Key<?> factory, Method method) {
+      this.factory = factory;
+      this.method = method;
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31*factory.hashCode() + method.hashCode();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof MethodKey)) {
+        return false;
+      }
+      
+      MethodKey other = (MethodKey) o;
+      return factory.equals(other.factory) && method.equals(other.method);
+    }
+  }
+  
+  private static class MethodStatistics {
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong builds = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+    
+    MethodStatistics() {
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new LatencyHistogram();
+      }
+    }
+  }
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.inject.Binder;
+import com.google.inject.Binding;
+import com.google.inject.ConfigurationException;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.spi.InjectionPoint;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.InterceptorBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.Message;
+import com.google.inject.spi.PrivateElements;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.ScopeBinding;
+import com.google.inject.spi.TypeConverterBinding;
+import com.google.inject.spi.TypeListenerBinding;
+import com.google.inject.spi.UntargettedBinding;
+
+/**
+ * Splits the recorded elements of a composition into the part that is the same
+ * for every composite and the part that varies with the arguments of the
+ * factory methods. A key varies if it is a factory parameter, a factory of a
+ * nested composition, the handle of the composite, a key that varies in the
+ * outer composition or if it depends on any of these.
+ * <p>
+ * The singletons bound by the composition vary as well unless it shares them:
+ * each composite has its own copies, just as if it was built by its own
+ * injector. A shared singleton that depends on none of the above is built
+ * once for the whole application instead. It lives as long as the injector
+ * and is not disposed when a composite is closed.
+ * <p>
+ * A composite can be reached only while it is wired. The analysis rejects
+ * objects that would outlive the wiring holding a way back into it: the
+ * injector or a provider of a key that varies. It also rejects products that
+ * reach the arguments of another factory method, which are never seeded into
+ * their composites.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositionAnalysis {
+  private static final Key<Injector> INJECTOR = Key.get(Injector.class);
+  private static final Key<CompositeHandle> HANDLE = Key.get(CompositeHandle.class);
+
+  /** The analysis of the composition this one is nested in */
+  private final CompositionAnalysis outer;
+  /** The bindings of the composition */
+  private final Map<Key<?>, Binding<?>> bindings;
+  /** The keys seeded by the factory methods */
+  private final Set<Key<?>> params;
+  /** The keys each analysed key depends on */
+  private final Map<Key<?>, Set<Key<?>>> edges;
+  /** The analysed keys that are classes Guice constructs */
+  private final Set<Key<?>> constructed;
+  /** The analysed keys that vary */
+  private final Set<Key<?>> varying;
+  /** Elements that are the same for every composite */
+  private final List<Element> sharedElements;
+  /** Elements that must be instantiated per composite */
+  private final List<Element> varyingElements;
+  /** Singletons that don't vary may be shared by all composites */
+  private final boolean shareSingletons;
+
+  /**
+   * @param elements the recorded composition.
+   * @param params the keys seeded by the factory methods.
+   * @param outer the analysis of the outer composition or null.
+   * @param shareSingletons if true the singletons that don't depend on
+   *        anything varying are shared by all composites.
+   */
+  public CompositionAnalysis(List<Element> elements, Collection<Key<?>> params,
+      CompositionAnalysis outer, boolean shareSingletons) {
+    
+    this.outer = outer;
+    this.shareSingletons = shareSingletons;
+    this.bindings = new HashMap<Key<?>, Binding<?>>();
+    this.params = new HashSet<Key<?>>(params);
+    this.edges = new HashMap<Key<?>, Set<Key<?>>>();
+    this.constructed = new HashSet<Key<?>>();
+    this.varying = new HashSet<Key<?>>();
+    this.sharedElements = new ArrayList<Element>();
+    this.varyingElements = new ArrayList<Element>();
+
+    /* The roots from which variation spreads */
+    varying.add(INJECTOR);
+    edges.put(INJECTOR, new HashSet<Key<?>>());
+    varying.add(HANDLE);
+    edges.put(HANDLE, new HashSet<Key<?>>());
+    for (Key<?> param : params) {
+      varying.add(param);
+      edges.put(param, new HashSet<Key<?>>());
+    }
+
+    for (Element element : elements) {
+      if (element instanceof Binding) {
+        Binding<?> binding = (Binding<?>) element;
+        bindings.put(binding.getKey(), binding);
+      } else if (element instanceof PrivateElements) {
+        /* We can't see inside private modules so assume they vary */
+        for (Key<?> exposed : ((PrivateElements) element).getExposedKeys()) {
+          varying.add(exposed);
+          edges.put(exposed, new HashSet<Key<?>>());
+        }
+      }
+    }
+
+    for (Element element : elements) {
+      if (isShared(element)) {
+        sharedElements.add(element);
+      } else {
+        varyingElements.add(element);
+      }
+    }
+  }
+
+  /**
+   * @return the elements that can be installed once for all composites.
+   */
+  public List<Element> shared() {
+    return sharedElements;
+  }
+
+  /**
+   * @return the elements that must be instantiated for every composite.
+   */
+  public List<Element> varying() {
+    return varyingElements;
+  }
+
+  /**
+   * Called while the analysis is built and later by the analyses of nested
+   * compositions.
+   * 
+   * @param key
+   * @return true if the value of {@code key} can vary between the composites.
+   */
+  public synchronized boolean varies(Key<?> key) {
+    if (!edges.containsKey(key)) {
+      List<Key<?>> added = new ArrayList<Key<?>>();
+      explore(key, added);
+
+      /*
+       * Variation can only spread to the newly added keys since the keys added
+       * earlier depend only on keys that have been fully analysed.
+       */
+      for (boolean changed = true; changed;) {
+        changed = false;
+        for (Key<?> node : added) {
+          if (!varying.contains(node)) {
+            for (Key<?> dep : edges.get(node)) {
+              if (varying.contains(dep)) {
+                varying.add(node);
+                changed = true;
+                break;
+              }
+            }
+          }
+        }
+      }
+    }
+    return varying.contains(key);
+  }
+
+  /**
+   * @return the keys reached so far that the composition does not bind.
+   */
+  public synchronized List<Key<?>> unbound() {
+    List<Key<?>> unbound = new ArrayList<Key<?>>();
+    for (Key<?> key : edges.keySet()) {
+      if (!bindings.containsKey(key)) {
+        unbound.add(key);
+      }
+    }
+    return unbound;
+  }
+
+  /**
+   * Checks the objects the product of a factory method reaches in the
+   * composition.
+   * 
+   * @param product the key of the product.
+   * @param seeded the parameters of the factory method.
+   * @param binder receives the errors.
+   */
+  public synchronized void check(Key<?> product, Collection<Key<?>> seeded, Binder binder) {
+    varies(product);
+    
+    Set<Key<?>> visited = new HashSet<Key<?>>();
+    List<Key<?>> pending = new ArrayList<Key<?>>();
+    pending.add(product);
+    while (!pending.isEmpty()) {
+      Key<?> key = pending.remove(pending.size() - 1);
+      if (!visited.add(key)) {
+        continue;
+      }
+      
+      if (params.contains(key) && !seeded.contains(key)) {
+        binder.addError("%s reaches %s which is an argument of another factory method", 
+            product, key);
+      }
+      
+      Set<Key<?>> deps = edges.get(key);
+      if (deps == null) {
+        continue;
+      }
+      
+      if (constructed.contains(key) && varying.contains(key)) {
+        for (Key<?> dep : deps) {
+          if (dep.equals(INJECTOR) || (isProvider(dep) && varies(providedKey(dep)))) {
+            binder.addError("%s injects %s which works only while its composite is wired. "
+                + "Inject the objects themselves or a factory of a nested composition", key, dep);
+          }
+        }
+      }
+      pending.addAll(deps);
+    }
+  }
+
+  /**
+   * @param key
+   * @return true if this or an outer composition has reached {@code key}.
+   */
+  public synchronized boolean reached(Key<?> key) {
+    return edges.containsKey(key) || (outer != null && outer.reached(key));
+  }
+
+  /**
+   * Adds {@code key} and the keys it reaches to the dependency graph.
+   */
+  private void explore(Key<?> key, List<Key<?>> added) {
+    Set<Key<?>> deps = new HashSet<Key<?>>();
+    edges.put(key, deps);
+    added.add(key);
+
+    Binding<?> binding = bindings.get(key);
+    if (binding != null) {
+      if (!dependencies(binding, deps) 
+          || (!shareSingletons && CompositionTemplate.isSingleton(binding))) {
+        varying.add(key);
+      }
+      if (binding instanceof UntargettedBinding) {
+        constructed.add(key);
+      }
+    } else if (outer != null && outer.varies(key)) {
+      varying.add(key);
+    } else if (isProvider(key)) {
+      deps.add(providedKey(key));
+    } else if (key.getAnnotationType() == null) {
+      /* Not bound by the composition - can be built just in time */
+      dependencies(key.getTypeLiteral(), deps);
+      constructed.add(key);
+    }
+
+    for (Key<?> dep : deps) {
+      if (!edges.containsKey(dep)) {
+        explore(dep, added);
+      }
+    }
+  }
+
+  /**
+   * Collects the dependencies of a binding of the composition.
+   * 
+   * @return false if the binding must be treated as varying regardless of its
+   *         dependencies.
+   */
+  private static boolean dependencies(final Binding<?> binding, final Set<Key<?>> deps) {
+    return binding.acceptTargetVisitor(new DefaultBindingTargetVisitor<Object, Boolean>() {
+      @Override
+      public Boolean visit(InstanceBinding<?> target) {
+        addAll(target, deps);
+        return true;
+      }
+
+      @Override
+      public Boolean visit(ProviderInstanceBinding<?> target) {
+        /* Factories of nested compositions capture the composite */
+        if (target.getProviderInstance() instanceof CompositeProvider) {
+          return false;
+        }
+        addAll(target, deps);
+        return true;
+      }
+
+      @Override
+      public Boolean visit(ProviderKeyBinding<?> target) {
+        deps.add(target.getProviderKey());
+        return true;
+      }
+
+      @Override
+      public Boolean visit(LinkedKeyBinding<?> target) {
+        deps.add(target.getLinkedKey());
+        return true;
+      }
+
+      @Override
+      public Boolean visit(UntargettedBinding<?> target) {
+        dependencies(target.getKey().getTypeLiteral(), deps);
+        return true;
+      }
+
+      @Override
+      protected Boolean visitOther(Binding<?> target) {
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Collects the dependencies of a class that Guice will construct.
+   */
+  private static void dependencies(TypeLiteral<?> type, Set<Key<?>> deps) {
+    Class<?> raw = type.getRawType();
+    if (raw.isInterface() || raw.isArray() || raw.isPrimitive() 
+        || Modifier.isAbstract(raw.getModifiers())) {
+      return;
+    }
+    
+    try {
+      addAll(InjectionPoint.forConstructorOf(type), deps);
+    } catch (ConfigurationException e) {
+      /* Guice will report this when it builds the template */
+    }
+    
+    try {
+      for (InjectionPoint point : InjectionPoint.forInstanceMethodsAndFields(type)) {
+        addAll(point, deps);
+      }
+    } catch (ConfigurationException e) {
+      /* Guice will report this when it builds the template */
+    }
+  }
+
+  private static void addAll(InjectionPoint point, Set<Key<?>> deps) {
+    for (Dependency<?> dep : point.getDependencies()) {
+      deps.add(dep.getKey());
+    }
+  }
+
+  private static void addAll(HasDependencies target, Set<Key<?>> deps) {
+    for (Dependency<?> dep : target.getDependencies()) {
+      deps.add(dep.getKey());
+    }
+  }
+
+  private static boolean isProvider(Key<?> key) {
+    return key.getTypeLiteral().getRawType() == Provider.class;
+  }
+
+  /**
+   * @return the key of the values supplied by a {@code Provider<T>} key.
+   */
+  private static Key<?> providedKey(Key<?> key) {
+    Type type = key.getTypeLiteral().getType();
+    if (!(type instanceof ParameterizedType)) {
+      return key;
+    }
+    
+    Type provided = ((ParameterizedType) type).getActualTypeArguments()[0];
+    
+    return key.getAnnotation() != null 
+      ? Key.get(provided, key.getAnnotation())
+      : key.getAnnotationType() != null 
+        ? Key.get(provided, key.getAnnotationType()) 
+        : Key.get(provided);
+  }
+
+  /**
+   * Decides which elements go into the injector shared by all composites.
+   */
+  private boolean isShared(Element element) {
+    return element.acceptVisitor(new DefaultElementVisitor<Boolean>() {
+      @Override
+      public <T> Boolean visit(Binding<T> binding) {
+        return !varies(binding.getKey());
+      }
+
+      /* These are inherited by the composites */
+
+      @Override
+      public Boolean visit(InterceptorBinding interceptor) {
+        return true;
+      }
+
+      @Override
+      public Boolean visit(ScopeBinding scope) {
+        return true;
+      }
+
+      @Override
+      public Boolean visit(TypeConverterBinding converter) {
+        return true;
+      }
+
+      @Override
+      public Boolean visit(TypeListenerBinding listener) {
+        return true;
+      }
+
+      @Override
+      public Boolean visit(Message message) {
+        return true;
+      }
+
+      /* The rest must see the varying bindings */
+
+      @Override
+      protected Boolean visitOther(Element element) {
+        return false;
+      }
+    });
+  }
+}
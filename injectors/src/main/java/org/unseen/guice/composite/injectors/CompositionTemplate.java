@@ -0,0 +1,603 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.inject.Binder;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.PrivateBinder;
+import com.google.inject.Provider;
+import com.google.inject.Scope;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.Stage;
+import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.PrivateElements;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.UntargettedBinding;
+import com.google.inject.util.Providers;
+
+/**
+ * A composition compiled once against the injector that hosts its factory. The
+ * part of the composed modules that does not vary with the factory arguments
+ * is installed into an injector shared by all composites. Unless the
+ * composition shares its singletons they always vary, so each composite gets
+ * its own copies. The rest goes into a
+ * template injector in which the singletons are moved into a
+ * {@link CompositeScope} and the factory parameters are bound to the arguments
+ * seeded into the active {@link CompositeInstance}. A factory call only
+ * activates a fresh instance and provisions the product from the providers
+ * resolved here - no injector is built per call.
+ * <p>
+ * Guice resolves the dependencies of the template injector while it is built,
+ * so every class the composition reaches without binding it is bound just in
+ * time at that point, either in the template or in the injector hosting the
+ * factory. Factory calls add no bindings anywhere, so the host grows with the
+ * number of compositions rather than the number of composites. The classes
+ * can't be bound in the template instead: Guice would then refuse to build
+ * them in the host for the rest of the application.
+ * <p>
+ * Private modules are replayed into the template the same way: the singletons
+ * bound inside them are moved into the composite scope as well.
+ * <p>
+ * The objects of a composite reach its singletons and arguments only while it
+ * is wired. The {@link CompositionAnalysis} rejects compositions whose
+ * objects would need them later, e.g. through an injected provider.
+ * <p>
+ * Interceptor bindings always go into the shared injector and are inherited by
+ * the template. Guice generates the enhanced subclass of an intercepted class
+ * once, when it binds that class, and every composite reuses it.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositionTemplate {
+  /** The template whose injector is being built on this thread */
+  private static final ThreadLocal<CompositionTemplate> BUILDING = new ThreadLocal<CompositionTemplate>();
+
+  /** The template of the composites that contain the factories of this one */
+  private final CompositionTemplate outer;
+  /** Tells what varies with the arguments of the factory methods */
+  private final CompositionAnalysis analysis;
+  /** The scope of the singletons of every composite */
+  private final CompositeScope scope;
+  /** The method suite of the factory */
+  private final Map<Method, CompositeFactoryMethod> methods;
+  /** The signatures shared with other templates - held to keep them cached */
+  private final Map<Method, CompositeFactoryMethod> signatures;
+  /** The singletons built with every composite */
+  private final List<Provider<?>> eager;
+  /** Holds the bindings of the composition that vary between composites */
+  private final Injector injector;
+  /** Seal the instances of the composites once they are wired */
+  private final boolean compact;
+  /** Receives the timings of the factory calls, null if not instrumented */
+  private final CompositeMetrics metrics;
+  /** The interface of the factory */
+  private final Class<?> factory;
+  /** The key the factory is bound to */
+  private final Key<?> key;
+
+  /**
+   * @param key the key the factory is bound to.
+   * @param elements the recorded composition.
+   * @param prepared the analysis of {@code elements} made ahead of time or
+   *        null. Used only if this is a top-level composition.
+   * @param parent
+   * @param lazy if true singletons are built only when a product reaches them,
+   *        even in {@link Stage#PRODUCTION}.
+   * @param compact if true the instances of the composites are sealed once
+   *        their products are built.
+   * @param metrics receives the timings of the factory calls or null.
+   * @param share if true the singletons that don't vary with the arguments are
+   *        shared by all composites.
+   */
+  public CompositionTemplate(Key<?> key, List<Element> elements, 
+      CompositionAnalysis prepared, Injector parent, boolean lazy, boolean compact, 
+      CompositeMetrics metrics, boolean share) {
+
+    this.outer = BUILDING.get();
+    this.key = key;
+    this.factory = key.getTypeLiteral().getRawType();
+    this.compact = compact;
+    this.metrics = metrics;
+    this.scope = new CompositeScope(factory, outer != null ? outer.scope.depth() + 1 : 0);
+
+    this.signatures = FactoryMetadata.methods(factory);
+    this.methods = new HashMap<Method, CompositeFactoryMethod>(signatures);
+
+    Map<Key<?>, Method> params = params(methods.values());
+
+    /* Explicit eager singletons are built with every composite regardless */
+    boolean eagerStage = !lazy && parent.getInstance(Stage.class) == Stage.PRODUCTION;
+    this.analysis = outer == null && prepared != null 
+      ? prepared
+      : new CompositionAnalysis(elements, params.keySet(), outer != null ? outer.analysis : null,
+          share);
+
+    /*
+     * Everything that does not vary with the arguments lives in an injector
+     * shared by all composites. Singletons there are real singletons.
+     */
+    Injector shared = analysis.shared().isEmpty() 
+      ? parent 
+      : parent.createChildInjector(Elements.getModule(analysis.shared()));
+
+    TemplateModule module = new TemplateModule(elements, params, eagerStage);
+
+    /*
+     * The factories of nested compositions are set up while the template
+     * injector is built. They need to know the template their composites will
+     * nest in.
+     */
+    BUILDING.set(this);
+    try {
+      this.injector = shared.createChildInjector(module);
+    } finally {
+      if (outer != null) {
+        BUILDING.set(outer);
+      } else {
+        BUILDING.remove();
+      }
+    }
+
+    for (Map.Entry<Method, CompositeFactoryMethod> method : methods.entrySet()) {
+      method.setValue(method.getValue().prepare(injector));
+    }
+
+    this.eager = module.eager();
+  }
+
+  /**
+   * Analyses a top-level composition without building it. Needs no injector.
+   * The dependencies of the products are explored as well so that checking
+   * them when the template is built needs no reflection.
+   * 
+   * @param factory
+   * @param elements the recorded composition.
+   * @param share if true the singletons that don't vary are shared.
+   * @return
+   */
+  public static CompositionAnalysis analyze(Class<?> factory, List<Element> elements,
+      boolean share) {
+    Collection<CompositeFactoryMethod> methods = FactoryMetadata.methods(factory).values();
+    CompositionAnalysis analysis = new CompositionAnalysis(elements, params(methods).keySet(), 
+        null, share);
+    for (CompositeFactoryMethod method : methods) {
+      analysis.varies(method.returnType());
+    }
+    return analysis;
+  }
+
+  /**
+   * @return the parameters of all factory methods.
+   */
+  private static Map<Key<?>, Method> params(Collection<CompositeFactoryMethod> methods) {
+    Map<Key<?>, Method> params = new HashMap<Key<?>, Method>();
+    for (CompositeFactoryMethod method : methods) {
+      for (Key<?> paramKey : method.parameterTypes()) {
+        params.put(paramKey, method.method());
+      }
+    }
+    return params;
+  }
+
+  @Override
+  public String toString() {
+    return "CompositionTemplate(" + scope + ")";
+  }
+
+  public CompositeScope scope() {
+    return scope;
+  }
+
+  public Class<?> factory() {
+    return factory;
+  }
+
+  public Key<?> key() {
+    return key;
+  }
+
+  /**
+   * @return the receiver of the timings of the factory calls or null.
+   */
+  public CompositeMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Called when a call of {@code method} is served without building a
+   * composite.
+   * 
+   * @param method
+   */
+  public void served(CompositeFactoryMethod method) {
+    if (metrics != null) {
+      metrics.served(key, method.method());
+    }
+  }
+
+  public Injector injector() {
+    return injector;
+  }
+
+  /**
+   * @return the implementations of all factory methods.
+   */
+  public Collection<CompositeFactoryMethod> methods() {
+    return methods.values();
+  }
+
+  /**
+   * @param method
+   * @return the implementation of {@code method}.
+   */
+  public CompositeFactoryMethod method(Method method) {
+    return methods.get(method);
+  }
+
+  /**
+   * Called by a factory method after it seeds a new composite to build the
+   * singletons that the stage or the user requested to be eager.
+   */
+  public void provisionEager() {
+    for (Provider<?> provider : eager) {
+      provider.get();
+    }
+  }
+
+  /**
+   * Called by a factory method once the product of a composite is built. The
+   * instance outlives the wiring if factories of nested compositions captured
+   * it.
+   * 
+   * @param instance
+   */
+  public void wired(CompositeInstance instance) {
+    if (compact) {
+      instance.seal();
+    }
+  }
+
+  /**
+   * Called when a factory of this composition is injected. If the injection
+   * happens while a composite of the outer composition is wired, the composites
+   * built by the factory must nest into it.
+   * 
+   * @return the outer composite instance or null if this is a top-level
+   *         composition or no outer composite is being wired.
+   */
+  public CompositeInstance capture() {
+    if (outer == null || !CompositeInstance.isActive()) {
+      return null;
+    }
+    return CompositeInstance.active().find(outer.scope());
+  }
+
+  /**
+   * Replays the varying part of the composed modules into the template
+   * injector.
+   */
+  private class TemplateModule implements Module {
+    private final List<Element> elements;
+    private final Map<Key<?>, Method> params;
+    /** True if the stage makes all singletons eager */
+    private final boolean eagerStage;
+    /** Keys bound by the composition */
+    private final Set<Key<?>> bound;
+    /** The singletons built with every composite - usable once the injector is built */
+    private final List<Provider<?>> eager;
+
+    public TemplateModule(List<Element> elements, Map<Key<?>, Method> params, 
+        boolean eagerStage) {
+      
+      this.elements = elements;
+      this.params = params;
+      this.eagerStage = eagerStage;
+      this.bound = new HashSet<Key<?>>();
+      this.eager = new ArrayList<Provider<?>>();
+    }
+
+    public List<Provider<?>> eager() {
+      return eager;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void configure(final Binder binder) {
+      /* Nested compositions inherit the handle from the outermost one */
+      if (outer == null) {
+        binder.bind(CompositeHandle.class).toProvider(HANDLE);
+      }
+      
+      /*
+       * All parameters are null in the composite unless seeded by the
+       * arguments of the called factory method.
+       */
+      for (Map.Entry<Key<?>, Method> param : params.entrySet()) {
+        bound.add(param.getKey());
+        binder.withSource(param.getValue()).bind((Key) param.getKey())
+          .toProvider(Providers.of(null)).in(scope);
+      }
+
+      for (Element element : elements) {
+        if (element instanceof Binding) {
+          bound.add(((Binding<?>) element).getKey());
+        }
+      }
+
+      for (Element element : analysis.varying()) {
+        replay(binder, element, null);
+      }
+      
+      for (CompositeFactoryMethod method : methods.values()) {
+        analysis.check(method.returnType(), method.parameterTypes(), 
+            binder.withSource(method.method()));
+      }
+
+      /*
+       * Singleton classes that vary with the composite would otherwise get a
+       * single just-in-time binding shared by all composites.
+       */
+      for (CompositeFactoryMethod method : methods.values()) {
+        rescopeJustInTime(binder.withSource(method.method()), method.returnType());
+      }
+      
+      /*
+       * The same goes for the singleton classes reached through other
+       * dependencies. Those an outer composition reached are its own.
+       */
+      for (Key<?> key : analysis.unbound()) {
+        if (outer == null || !outer.analysis.reached(key)) {
+          rescopeJustInTime(binder, key);
+        }
+      }
+    }
+
+    /**
+     * Applies a varying element to {@code binder} with its singletons moved
+     * into the composite scope.
+     * 
+     * @param privateBound the keys bound by the private module {@code binder}
+     *        belongs to or null at the top level. The analysis can't see what
+     *        the classes reached in a private module depend on so their
+     *        singleton classes are always built per composite.
+     */
+    private void replay(final Binder binder, Element element, final Set<Key<?>> privateBound) {
+      element.acceptVisitor(new DefaultElementVisitor<Void>() {
+        @Override
+        public <T> Void visit(Binding<T> binding) {
+          if (!isSingleton(binding) || !rescope(binder, binding, privateBound)) {
+            binding.applyTo(binder);
+          }
+
+          if (binding instanceof LinkedKeyBinding) {
+            Key<?> linked = ((LinkedKeyBinding<?>) binding).getLinkedKey();
+            if (privateBound != null) {
+              rescopeClass(binder.withSource(binding.getSource()), linked, privateBound);
+            } else {
+              rescopeJustInTime(binder.withSource(binding.getSource()), linked);
+            }
+          }
+          return null;
+        }
+
+        @Override
+        public Void visit(PrivateElements elements) {
+          PrivateBinder priv = binder.withSource(elements.getSource()).newPrivateBinder();
+          
+          Set<Key<?>> bound = new HashSet<Key<?>>();
+          for (Element inner : elements.getElements()) {
+            if (inner instanceof Binding) {
+              bound.add(((Binding<?>) inner).getKey());
+            }
+          }
+          
+          for (Element inner : elements.getElements()) {
+            replay(priv, inner, bound);
+          }
+          for (Key<?> exposed : elements.getExposedKeys()) {
+            priv.withSource(elements.getExposedSource(exposed)).expose(exposed);
+          }
+          return null;
+        }
+
+        @Override
+        protected Void visitOther(Element element) {
+          element.applyTo(binder);
+          return null;
+        }
+      });
+    }
+
+    /**
+     * Moves a singleton binding into the composite scope. The composite owns
+     * only the objects it constructs. Those of providers are cached without
+     * taking ownership since a provider may hand out a shared object.
+     * 
+     * @return false if the binding has a target that can't be re-scoped.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> boolean rescope(final Binder binder, final Binding<T> binding, 
+        final Set<Key<?>> privateBound) {
+      final Binder source = binder.withSource(binding.getSource());
+
+      boolean rescoped = binding.acceptTargetVisitor(new DefaultBindingTargetVisitor<T, Boolean>() {
+        @Override
+        public Boolean visit(ProviderInstanceBinding<? extends T> target) {
+          source.bind((Key) target.getKey()).toProvider((Provider) target.getProviderInstance())
+            .in(scope.borrowing());
+          return true;
+        }
+
+        @Override
+        public Boolean visit(ProviderKeyBinding<? extends T> target) {
+          source.bind((Key) target.getKey()).toProvider((Key) target.getProviderKey())
+            .in(scope.borrowing());
+          return true;
+        }
+
+        @Override
+        public Boolean visit(LinkedKeyBinding<? extends T> target) {
+          Key<?> linked = target.getLinkedKey();
+          source.bind((Key) target.getKey()).to((Key) linked)
+            .in(constructs(linked, privateBound) ? scope : scope.borrowing());
+          return true;
+        }
+
+        @Override
+        public Boolean visit(UntargettedBinding<? extends T> target) {
+          source.bind((Key) target.getKey()).in(scope);
+          return true;
+        }
+
+        @Override
+        protected Boolean visitOther(Binding<? extends T> target) {
+          return false;
+        }
+      });
+
+      if (rescoped && (eagerStage || binding.acceptScopingVisitor(IS_EAGER))) {
+        eager.add(binder.getProvider(binding.getKey()));
+      }
+      return rescoped;
+    }
+
+    /**
+     * @return true if the target of a linked binding is a class constructed
+     *         for each composite rather than an object obtained from another
+     *         binding or shared by all composites.
+     */
+    private boolean constructs(Key<?> linked, Set<Key<?>> privateBound) {
+      if (linked.getAnnotationType() != null || bound.contains(linked)
+          || (privateBound != null && privateBound.contains(linked))) {
+        return false;
+      }
+      
+      Class<?> raw = linked.getTypeLiteral().getRawType();
+      if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+        return false;
+      }
+      
+      /* Singleton classes reached in private modules are always built per composite */
+      return privateBound != null || !isSingletonClass(linked) || analysis.varies(linked);
+    }
+
+    /**
+     * Binds a singleton class into the composite scope unless the composition
+     * binds it already or it does not vary with the composite.
+     */
+    @SuppressWarnings("unchecked")
+    private void rescopeJustInTime(Binder binder, Key<?> key) {
+      if (bound.contains(key) || !isSingletonClass(key) || !analysis.varies(key)) {
+        return;
+      }
+
+      bound.add(key);
+      binder.bind((Key) key).in(scope);
+      if (eagerStage) {
+        eager.add(binder.getProvider(key));
+      }
+    }
+
+    /**
+     * Binds a singleton class targeted inside a private module into the
+     * composite scope.
+     */
+    @SuppressWarnings("unchecked")
+    private void rescopeClass(Binder binder, Key<?> key, Set<Key<?>> bound) {
+      if (bound.contains(key) || !isSingletonClass(key)) {
+        return;
+      }
+
+      bound.add(key);
+      binder.bind((Key) key).in(scope);
+      if (eagerStage) {
+        eager.add(binder.getProvider(key));
+      }
+    }
+  }
+
+  /** The handle of the composite that owns the object being built */
+  private static final Provider<CompositeHandle> HANDLE = new Provider<CompositeHandle>() {
+    public CompositeHandle get() {
+      return CompositeInstance.active();
+    }
+  };
+
+  private static final BindingScopingVisitor<Boolean> IS_EAGER = new BindingScopingVisitor<Boolean>() {
+    public Boolean visitEagerSingleton() {
+      return true;
+    }
+
+    public Boolean visitScope(Scope scope) {
+      return false;
+    }
+
+    public Boolean visitScopeAnnotation(Class<? extends Annotation> tag) {
+      return false;
+    }
+
+    public Boolean visitNoScoping() {
+      return false;
+    }
+  };
+
+  static boolean isSingleton(final Binding<?> binding) {
+    return binding.acceptScopingVisitor(new BindingScopingVisitor<Boolean>() {
+      public Boolean visitEagerSingleton() {
+        return true;
+      }
+
+      public Boolean visitScope(Scope scope) {
+        return scope == Scopes.SINGLETON;
+      }
+
+      public Boolean visitScopeAnnotation(Class<? extends Annotation> tag) {
+        return tag == Singleton.class;
+      }
+
+      public Boolean visitNoScoping() {
+        /* Untargetted bindings take the scope annotation of their class */
+        return binding instanceof UntargettedBinding && isSingletonClass(binding.getKey());
+      }
+    });
+  }
+
+  private static boolean isSingletonClass(Key<?> key) {
+    Class<?> type = key.getTypeLiteral().getRawType();
+    return key.getAnnotationType() == null && !type.isInterface()
+        && type.isAnnotationPresent(Singleton.class);
+  }
+}
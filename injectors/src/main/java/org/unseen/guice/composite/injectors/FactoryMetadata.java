@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.google.inject.ConfigurationException;
+import com.google.inject.internal.Errors;
+import com.google.inject.internal.ErrorsException;
+
+/**
+ * Process-wide cache of the method signatures of factory interfaces. Every
+ * injector that hosts a composition of the same factory shares the reflection
+ * results and the Guice keys computed for its methods. Each
+ * {@link CompositionTemplate} only prepares its own copies against its
+ * template injector.
+ * <p>
+ * The cache does not keep class loaders alive. Entries are weakly keyed by the
+ * factory interface and the signatures, which refer back to the interface
+ * through their methods, are held weakly as well. The templates that use the
+ * signatures keep them cached - once the last one is gone the interface can be
+ * unloaded.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class FactoryMetadata {
+  private static final Map<Class<?>, Reference<Map<Method, CompositeFactoryMethod>>> SIGNATURES = 
+    new WeakHashMap<Class<?>, Reference<Map<Method, CompositeFactoryMethod>>>();
+  
+  private FactoryMetadata() {
+  }
+  
+  /**
+   * @param factory the factory interface.
+   * @return the immutable unprepared signatures of the methods of
+   *         {@code factory}.
+   */
+  public static Map<Method, CompositeFactoryMethod> methods(Class<?> factory) {
+    synchronized (SIGNATURES) {
+      Reference<Map<Method, CompositeFactoryMethod>> ref = SIGNATURES.get(factory);
+      Map<Method, CompositeFactoryMethod> methods = ref != null ? ref.get() : null;
+      if (methods != null) {
+        return methods;
+      }
+    }
+    
+    /* Build outside the lock - a concurrent duplicate is harmless. Failures are not cached. */
+    Map<Method, CompositeFactoryMethod> methods = new HashMap<Method, CompositeFactoryMethod>();
+    Errors errors = new Errors();
+    try {
+      // TODO: also grab methods from superinterfaces
+      for (Method method : factory.getMethods()) {
+        methods.put(method, new CompositeFactoryMethod(method, errors));
+      }
+    } catch (ErrorsException e) {
+      throw new ConfigurationException(e.getErrors().getMessages());
+    }
+    methods = Collections.unmodifiableMap(methods);
+    
+    synchronized (SIGNATURES) {
+      SIGNATURES.put(factory, new WeakReference<Map<Method, CompositeFactoryMethod>>(methods));
+    }
+    return methods;
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in buckets of powers of two nanoseconds.
+ * Recording is a few atomic increments. Percentiles are exact to within a
+ * factor of two.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class LatencyHistogram {
+  /** Bucket i counts the values below 2^i and at least 2^(i-1) */
+  private final AtomicLongArray buckets;
+  private final AtomicLong total;
+  
+  public LatencyHistogram() {
+    this.buckets = new AtomicLongArray(Long.SIZE + 1);
+    this.total = new AtomicLong();
+  }
+  
+  @Override
+  public String toString() {
+    return "LatencyHistogram(count=" + count() + ", mean=" + mean() + "ns, p50=" 
+      + percentile(50) + "ns, p99=" + percentile(99) + "ns)";
+  }
+  
+  /**
+   * @param nanos
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    total.addAndGet(nanos);
+  }
+  
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+  
+  /**
+   * @return the mean latency in nanoseconds or 0 if nothing was recorded.
+   */
+  public long mean() {
+    long count = count();
+    return count > 0 ? total.get()/count : 0;
+  }
+  
+  /**
+   * @param percent between 0 and 100.
+   * @return the upper bound of the bucket that holds the percentile or 0 if
+   *         nothing was recorded.
+   */
+  public long percentile(double percent) {
+    long count = count();
+    if (count == 0) {
+      return 0;
+    }
+    
+    long rank = (long) Math.ceil(count * percent / 100);
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= rank && seen > 0) {
+        return i < Long.SIZE - 1 ? 1L << i : Long.MAX_VALUE;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+}
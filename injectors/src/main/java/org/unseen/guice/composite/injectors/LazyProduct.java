@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors;
+
+import static com.google.inject.internal.BytecodeGen.getClassLoader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.inject.ProvisionException;
+
+/**
+ * Stands in for an interface-typed product of a composite factory. The
+ * composite is built on the first call to a method of the product. Concurrent
+ * first calls build it once.
+ * <p>
+ * The build runs inside a call to some method of the product, which does not
+ * declare the checked exceptions of the factory method. A checked exception
+ * thrown by the build therefore comes out of that call wrapped in a
+ * {@link ProvisionException}, as does a factory that returns null. Runtime
+ * exceptions and errors come out as they are. A failed build is not retried.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class LazyProduct implements InvocationHandler {
+  private final Object proxy;
+  /** Cleared once the product is built so that the arguments can be collected */
+  private CompositeFactory<?> factory;
+  private Method method;
+  private Object[] args;
+  private Object product;
+  /** The failure of the build if it failed */
+  private RuntimeException failure;
+  /** The methods of the product's class, resolved on first use */
+  private Map<Method, Method> targets;
+  private volatile boolean built;
+  
+  /**
+   * @param factory the factory that builds the product.
+   * @param method the factory method called.
+   * @param args the arguments of the call.
+   * @return a stand-in for the product of {@code method}.
+   */
+  public static Object get(CompositeFactory<?> factory, Method method, Object[] args) {
+    return new LazyProduct(factory, method, args).proxy;
+  }
+  
+  /**
+   * @return true if the results of {@code method} can be built lazily.
+   */
+  public static boolean canDefer(Method method) {
+    return method.getReturnType().isInterface();
+  }
+  
+  private LazyProduct(CompositeFactory<?> factory, Method method, Object[] args) {
+    this.factory = factory;
+    this.method = method;
+    this.args = args;
+    
+    Class<?> type = method.getReturnType();
+    this.proxy = Proxy.newProxyInstance(getClassLoader(type), new Class[] { type }, this);
+  }
+  
+  /**
+   * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+   */
+  public Object invoke(Object proxy, Method called, Object[] callArgs) throws Throwable {
+    /* Identity must not depend on whether the product is built */
+    if (called.getDeclaringClass() == Object.class) {
+      if ("equals".equals(called.getName())) {
+        return proxy == callArgs[0];
+      }
+      if ("hashCode".equals(called.getName())) {
+        return System.identityHashCode(proxy);
+      }
+    }
+    
+    Object target = product();
+    try {
+      return target(target, called).invoke(target, callArgs);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+  
+  /**
+   * Resolves {@code called} against the class of the product. The proxy hands
+   * us a {@link Method} it shares with every other proxy of the interface so we
+   * must not make that one accessible.
+   */
+  private Method target(Object target, Method called) throws NoSuchMethodException {
+    Method resolved = targets.get(called);
+    if (resolved == null) {
+      resolved = target.getClass().getMethod(called.getName(), called.getParameterTypes());
+      /* The class may be out of our reach - this copy is ours to change */
+      resolved.setAccessible(true);
+      targets.put(called, resolved);
+    }
+    return resolved;
+  }
+  
+  private Object product() {
+    if (!built) {
+      synchronized (this) {
+        if (!built) {
+          try {
+            product = factory.build(method, args);
+            if (product == null) {
+              failure = new ProvisionException(method + " returned null for a lazy product");
+            }
+          } catch (RuntimeException e) {
+            failure = e;
+          } catch (Error e) {
+            throw e;
+          } catch (Throwable e) {
+            failure = new ProvisionException("Building the lazy product of " + method + " failed", e);
+          }
+          
+          targets = new ConcurrentHashMap<Method, Method>();
+          factory = null;
+          method = null;
+          args = null;
+          built = true;
+        }
+      }
+    }
+    
+    if (failure != null) {
+      throw failure;
+    }
+    return product;
+  }
+}
@@ -28,20 +28,25 @@ import com.google.inject.binder.AnnotatedBindingBuilder;
 public class CompositeAnnotatedBindingBuilderImpl<T> extends CompositeLinkedBindingBuilderImpl<T>
     implements CompositeAnnotatedBindingBuilder<T> {
 
+  private final Key<T> key;
   private final AnnotatedBindingBuilder<T> wrapped;
   
   public CompositeAnnotatedBindingBuilderImpl(Key<T> key, AnnotatedBindingBuilder<T> wrapped) {
     super(key, wrapped);
+    this.key = key;
     this.wrapped = wrapped;
   }
   
   public CompositeLinkedBindingBuilder<T> annotatedWith(Class<? extends Annotation> annotationType) {
     wrapped.annotatedWith(annotationType);
-    return this;
+    /* Compositions need the full key to tell the bindings of one interface apart */
+    return new CompositeLinkedBindingBuilderImpl<T>(Key.get(key.getTypeLiteral(), annotationType),
+        wrapped);
   }
 
   public CompositeLinkedBindingBuilder<T> annotatedWith(Annotation annotation) {
     wrapped.annotatedWith(annotation);
-    return this;
+    return new CompositeLinkedBindingBuilderImpl<T>(Key.get(key.getTypeLiteral(), annotation),
+        wrapped);
   }
 }
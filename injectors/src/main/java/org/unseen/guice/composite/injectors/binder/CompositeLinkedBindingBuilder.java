@@ -24,9 +24,9 @@ import com.google.inject.binder.LinkedBindingBuilder;
  * @param <T>
  */
 public interface CompositeLinkedBindingBuilder<T> extends LinkedBindingBuilder<T> {
-  void toComposition(Iterable<Module> modules);
+  CompositionBindingBuilder toComposition(Iterable<Module> modules);
   
-  void toComposition(Module... modules);
+  CompositionBindingBuilder toComposition(Module... modules);
   
-  void toComposition(Class<?> impl);
+  CompositionBindingBuilder toComposition(Class<?> impl);
 }
@@ -16,7 +16,9 @@
 package org.unseen.guice.composite.injectors.binder;
 
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.unseen.guice.composite.injectors.CompositeProvider;
 
@@ -43,28 +45,35 @@ public class CompositeLinkedBindingBuilderImpl<T> implements CompositeLinkedBind
     this.wrapped = wrapped;
   }
   
-  public void toComposition(Module... modules) {
-    toComposition(Arrays.asList(modules));
+  public CompositionBindingBuilder toComposition(Module... modules) {
+    return toComposition(Arrays.asList(modules));
   }
   
   @SuppressWarnings("unchecked")
-  public void toComposition(final Class<?> impl) {
-    toComposition(new AbstractModule() {
+  public CompositionBindingBuilder toComposition(Class<?> impl) {
+    /* Reflect on the implementation once rather than every time the module runs */
+    final Key implKey = Key.get(impl);
+    final List<Key<?>> ifaceKeys = new ArrayList<Key<?>>();
+    for (Class<?> iface : impl.getInterfaces()) {
+      ifaceKeys.add(Key.get(iface));
+    }
+    
+    return toComposition(new AbstractModule() {
       @Override
       protected void configure() {
-        Key implKey = Key.get(impl);
-        
         bind(implKey);
-        for (Class<?> iface : impl.getInterfaces()) {
-          bind(Key.get(iface)).to(implKey);
+        for (Key ifaceKey : ifaceKeys) {
+          bind(ifaceKey).to(implKey);
         }
       }
     });
   }
   
   @SuppressWarnings("unchecked")
-  public void toComposition(Iterable<Module> modules) {
-    toProvider(new CompositeProvider(key.getTypeLiteral().getRawType(), modules));
+  public CompositionBindingBuilder toComposition(Iterable<Module> modules) {
+    CompositeProvider provider = new CompositeProvider(key, modules);
+    toProvider(provider);
+    return new CompositionBindingBuilderImpl(provider);
   }
 
   public ScopedBindingBuilder to(Class<? extends T> implementation) {
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.binder;
+
+import org.unseen.guice.composite.injectors.CompositeCache;
+import org.unseen.guice.composite.injectors.CompositeMetrics;
+import org.unseen.guice.composite.injectors.CompositePool;
+import org.unseen.guice.composite.injectors.CompositePreparation;
+
+import com.google.inject.Stage;
+
+/**
+ * Configures how a composition bound to a factory builds its products.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public interface CompositionBindingBuilder {
+  /**
+   * Memoize the products of the factory by the arguments they are built from.
+   * Without this every call builds a fresh composite.
+   * 
+   * @param cache
+   * @return
+   */
+  CompositionBindingBuilder memoizedIn(CompositeCache cache);
+  
+  /**
+   * Keep composites built ahead of time by {@code pool} for the factory
+   * methods that take no arguments. Can't be combined with memoization.
+   * 
+   * @param pool
+   * @return
+   */
+  CompositionBindingBuilder pooledIn(CompositePool pool);
+  
+  /**
+   * Build the singletons of every composite only when the product reaches
+   * them. Otherwise in {@link Stage#PRODUCTION} all singletons of the
+   * composition are built with every composite.
+   * 
+   * @return
+   */
+  CompositionBindingBuilder withLazySingletons();
+  
+  /**
+   * Return stand-ins for the products of factory methods that return
+   * interfaces. The composite behind a stand-in is built on the first call to
+   * any of its methods other than {@code equals()} and {@code hashCode()}.
+   * That call throws a {@link com.google.inject.ProvisionException} if the
+   * build fails with a checked exception or the product is null.
+   * 
+   * @return
+   */
+  CompositionBindingBuilder withLazyProducts();
+  
+  /**
+   * Keep only the objects of a composite once its product is built. This pays
+   * off for long-lived products that inject factories of nested compositions,
+   * since those keep the composite alive.
+   * 
+   * @return
+   */
+  CompositionBindingBuilder withLowFootprint();
+  
+  /**
+   * Build the singletons of the composition that don't depend on the factory
+   * arguments once for all composites. They live as long as the injector and
+   * are not disposed when a composite is closed. Otherwise every composite has
+   * its own singletons.
+   * 
+   * @return
+   */
+  CompositionBindingBuilder withSharedSingletons();
+  
+  /**
+   * Prepare the composition in parallel with the other compositions that
+   * share {@code preparation} while the injector is created.
+   * 
+   * @param preparation
+   * @return
+   */
+  CompositionBindingBuilder preparedBy(CompositePreparation preparation);
+  
+  /**
+   * Report the compilation of the composition and the phases of every factory
+   * call to {@code metrics}.
+   * 
+   * @param metrics
+   * @return
+   */
+  CompositionBindingBuilder instrumentedBy(CompositeMetrics metrics);
+}
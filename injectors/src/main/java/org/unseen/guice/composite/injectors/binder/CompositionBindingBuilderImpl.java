@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.binder;
+
+import org.unseen.guice.composite.injectors.CompositeCache;
+import org.unseen.guice.composite.injectors.CompositeMetrics;
+import org.unseen.guice.composite.injectors.CompositePool;
+import org.unseen.guice.composite.injectors.CompositePreparation;
+import org.unseen.guice.composite.injectors.CompositeProvider;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CompositionBindingBuilderImpl implements CompositionBindingBuilder {
+  private final CompositeProvider<?> provider;
+  
+  public CompositionBindingBuilderImpl(CompositeProvider<?> provider) {
+    this.provider = provider;
+  }
+  
+  public CompositionBindingBuilder memoizedIn(CompositeCache cache) {
+    provider.memoizeIn(cache);
+    return this;
+  }
+  
+  public CompositionBindingBuilder pooledIn(CompositePool pool) {
+    provider.poolIn(pool);
+    return this;
+  }
+  
+  public CompositionBindingBuilder withLazySingletons() {
+    provider.lazySingletons();
+    return this;
+  }
+  
+  public CompositionBindingBuilder withLazyProducts() {
+    provider.lazyProducts();
+    return this;
+  }
+  
+  public CompositionBindingBuilder withLowFootprint() {
+    provider.lowFootprint();
+    return this;
+  }
+  
+  public CompositionBindingBuilder withSharedSingletons() {
+    provider.shareSingletons();
+    return this;
+  }
+  
+  public CompositionBindingBuilder preparedBy(CompositePreparation preparation) {
+    provider.preparedBy(preparation);
+    return this;
+  }
+  
+  public CompositionBindingBuilder instrumentedBy(CompositeMetrics metrics) {
+    provider.instrumentBy(metrics);
+    return this;
+  }
+}
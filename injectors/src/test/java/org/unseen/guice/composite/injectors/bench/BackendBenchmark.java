@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+import static org.unseen.guice.composite.injectors.Args.arg;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+
+/**
+ * Compares a composition built by {@code toComposition()}, which runs on the
+ * composite scope caches, with building the same composition in a child
+ * injector per call.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class BackendBenchmark {
+  private static final int CALLS = 20000;
+  private static final int ROUNDS = 5;
+  
+  public interface OrderFactory {
+    Order create(@Arg("id") String id);
+  }
+  
+  public static class Order {
+    @Inject @Arg("id") String id;
+    @Inject Ledger ledger;
+    @Inject Pricing pricing;
+  }
+  
+  @Singleton
+  public static class Ledger {
+    @Inject @Arg("id") String id;
+  }
+  
+  /** Does not vary with the order */
+  public static class Pricing {
+  }
+  
+  private static final Module COMPOSITION = new AbstractModule() {
+    @Override
+    protected void configure() {
+      bind(Order.class);
+      bind(Ledger.class);
+      bind(Pricing.class).in(Scopes.SINGLETON);
+    }
+  };
+  
+  public static void main(String[] args) {
+    OrderFactory composite = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(OrderFactory.class).toComposition(COMPOSITION);
+      }
+    }).getInstance(OrderFactory.class);
+    
+    Injector parent = createInjector();
+    
+    System.out.println("round\tscope cache ns/call\tchild injector ns/call");
+    for (int r = 0; r < ROUNDS; r++) {
+      System.out.println(r + "\t" + run(composite) + "\t" + run(parent));
+    }
+  }
+  
+  private static long run(OrderFactory factory) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      factory.create("order");
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+  
+  private static long run(Injector parent) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      final String id = "order";
+      parent.createChildInjector(COMPOSITION, new AbstractModule() {
+        @Override
+        protected void configure() {
+          bind(Key.get(String.class, arg("id"))).toInstance(id);
+        }
+      }).getInstance(Order.class);
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+}
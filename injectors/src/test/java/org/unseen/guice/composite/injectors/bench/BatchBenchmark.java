@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeBatch;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Compares building a batch of composites through the factory proxy, through a
+ * serial {@link CompositeBatch} and through a parallel one.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class BatchBenchmark {
+  private static final int BATCH = 1000;
+  private static final int BATCHES = 200;
+  private static final int ROUNDS = 5;
+  
+  public interface PartitionFactory {
+    Partition create(@Arg("index") Integer index);
+  }
+  
+  public static class Partition {
+    @Inject @Arg("index") Integer index;
+    @Inject Log log;
+  }
+  
+  @Singleton
+  public static class Log {
+    @Inject @Arg("index") Integer index;
+  }
+  
+  public static void main(String[] args) throws Exception {
+    PartitionFactory factory = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(PartitionFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Partition.class);
+          }
+        });
+      }
+    }).getInstance(PartitionFactory.class);
+    
+    Method create = PartitionFactory.class.getMethod("create", Integer.class);
+    List<Object[]> calls = new ArrayList<Object[]>();
+    for (int i = 0; i < BATCH; i++) {
+      calls.add(new Object[] { i });
+    }
+    
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      System.out.println("round\tproxy ns/product\tbatch ns/product\tparallel on " + threads 
+          + " threads ns/product");
+      for (int r = 0; r < ROUNDS; r++) {
+        long start = System.nanoTime();
+        for (int b = 0; b < BATCHES; b++) {
+          for (int i = 0; i < BATCH; i++) {
+            factory.create(i);
+          }
+        }
+        long proxy = (System.nanoTime() - start)/(BATCHES*BATCH);
+        
+        start = System.nanoTime();
+        for (int b = 0; b < BATCHES; b++) {
+          CompositeBatch.build(factory, create, calls);
+        }
+        long batch = (System.nanoTime() - start)/(BATCHES*BATCH);
+        
+        start = System.nanoTime();
+        for (int b = 0; b < BATCHES; b++) {
+          CompositeBatch.build(factory, create, calls, executor);
+        }
+        long parallel = (System.nanoTime() - start)/(BATCHES*BATCH);
+        
+        System.out.println(r + "\t" + proxy + "\t" + batch + "\t" + parallel);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
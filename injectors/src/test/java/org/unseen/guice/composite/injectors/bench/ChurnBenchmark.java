@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.io.Closeable;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeHandle;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Churns composites that hold a closeable resource and a factory of a nested
+ * composition. A fixed window of composites is kept alive and the oldest one is
+ * closed as each new one is built. The used heap and the resources left open
+ * must stay flat from round to round.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class ChurnBenchmark {
+  private static final int WINDOW = 1000;
+  private static final int CALLS = 200000;
+  private static final int ROUNDS = 5;
+  
+  /** Resources opened and not yet closed */
+  static int open;
+  
+  public interface SessionFactory {
+    Session create(@Arg("user") String user);
+  }
+  
+  public interface RequestFactory {
+    Request create(@Arg("path") String path);
+  }
+  
+  public static class Session {
+    @Inject CompositeHandle handle;
+    @Inject Resource resource;
+    @Inject RequestFactory requests;
+  }
+  
+  public static class Resource implements Closeable {
+    @Inject @Arg("user") String user;
+    final byte[] buffer = new byte[256];
+    
+    public Resource() {
+      open++;
+    }
+    
+    public void close() {
+      open--;
+    }
+  }
+  
+  public static class Request {
+    @Inject @Arg("path") String path;
+    @Inject Session session;
+  }
+  
+  public static void main(String[] args) {
+    SessionFactory factory = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Session.class).in(Singleton.class);
+            bind(Resource.class).in(Singleton.class);
+            
+            bind(RequestFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Request.class);
+              }
+            });
+          }
+        });
+      }
+    }).getInstance(SessionFactory.class);
+    
+    Session[] window = new Session[WINDOW];
+    
+    System.out.println("round\tused heap KB\topen resources\tns/call");
+    for (int r = 0; r < ROUNDS; r++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < CALLS; i++) {
+        int slot = i % WINDOW;
+        if (window[slot] != null) {
+          window[slot].handle.close();
+        }
+        window[slot] = factory.create("u");
+        window[slot].requests.create("/");
+      }
+      long time = (System.nanoTime() - start)/CALLS;
+      
+      System.out.println(r + "\t" + usedHeap()/1024 + "\t" + open + "\t" + time);
+    }
+  }
+  
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+
+/**
+ * Measures how composite creation scales with the number of threads that call
+ * the same factories. Every thread opens connection composites and builds
+ * requests nested in them. Prints composites per second for 1 to 64 threads.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class ConcurrentCreationBenchmark {
+  private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+  private static final long RUN_MILLIS = 2000;
+  private static final int REQUESTS_PER_CONNECTION = 4;
+  
+  public interface ConnectionFactory {
+    Connection open(@Arg("host") String host);
+  }
+  
+  public interface RequestFactory {
+    Request create(@Arg("path") String path);
+  }
+  
+  @Singleton
+  public static class Connection {
+    @Inject @Arg("host") String host;
+    @Inject RequestFactory requests;
+  }
+  
+  @Singleton
+  public static class Request {
+    @Inject @Arg("path") String path;
+    @Inject Connection conn;
+    @Inject Codec codec;
+  }
+  
+  /** Argument-independent and therefore shared by all composites */
+  public static class Codec {
+  }
+  
+  public static void main(String[] args) throws InterruptedException {
+    final ConnectionFactory factory = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(Codec.class).in(Scopes.SINGLETON);
+        bind(ConnectionFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Connection.class);
+            bind(RequestFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Request.class);
+              }
+            });
+          }
+        });
+      }
+    }).getInstance(ConnectionFactory.class);
+    
+    /* Warm up the JIT and the just-in-time bindings */
+    run(factory, Runtime.getRuntime().availableProcessors(), RUN_MILLIS);
+    
+    System.out.println("threads\tcomposites/s");
+    for (int threads : THREADS) {
+      long count = run(factory, threads, RUN_MILLIS);
+      System.out.println(threads + "\t" + (count*1000/RUN_MILLIS));
+    }
+  }
+  
+  private static long run(final ConnectionFactory factory, int threads, final long millis) 
+    throws InterruptedException {
+    
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicLong total = new AtomicLong();
+    
+    for (int t = 0; t < threads; t++) {
+      final String host = "host" + t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            long count = 0;
+            long end = System.currentTimeMillis() + millis;
+            while (System.currentTimeMillis() < end) {
+              Connection conn = factory.open(host);
+              for (int r = 0; r < REQUESTS_PER_CONNECTION; r++) {
+                conn.requests.create("/" + r);
+              }
+              count += 1 + REQUESTS_PER_CONNECTION;
+            }
+            total.addAndGet(count);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    
+    start.countDown();
+    done.await();
+    return total.get();
+  }
+}
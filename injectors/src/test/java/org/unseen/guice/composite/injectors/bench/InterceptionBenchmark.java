@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.Inject;
+import com.google.inject.matcher.Matchers;
+
+/**
+ * Builds composites of an intercepted class and reports the time per factory
+ * call and the classes loaded per round. Guice must enhance the class once per
+ * composition, so the loaded classes must stay at zero after the warm up.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class InterceptionBenchmark {
+  private static final int CALLS = 200000;
+  private static final int ROUNDS = 5;
+  
+  public interface AccountFactory {
+    Account open(@Arg String owner);
+  }
+  
+  public static class Account {
+    @Inject @Arg String owner;
+    
+    public String owner() {
+      return owner;
+    }
+  }
+  
+  public static void main(String[] args) {
+    final AtomicInteger calls = new AtomicInteger();
+    final MethodInterceptor counter = new MethodInterceptor() {
+      public Object invoke(MethodInvocation invocation) throws Throwable {
+        calls.incrementAndGet();
+        return invocation.proceed();
+      }
+    };
+    
+    AccountFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(AccountFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bindInterceptor(Matchers.only(Account.class), 
+                Matchers.returns(Matchers.only(String.class)), counter);
+            bind(Account.class);
+          }
+        });
+      }
+    }).getInstance(AccountFactory.class);
+    
+    /* Warm up */
+    run(fact, CALLS/10);
+    
+    ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+    System.out.println("round\tns/call\tclasses loaded");
+    for (int r = 0; r < ROUNDS; r++) {
+      long before = classes.getTotalLoadedClassCount();
+      long nanos = run(fact, CALLS);
+      System.out.println(r + "\t" + nanos + "\t" + (classes.getTotalLoadedClassCount() - before));
+    }
+    System.out.println("intercepted calls\t" + calls.get());
+  }
+  
+  private static long run(AccountFactory fact, int count) {
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      fact.open("owner").owner();
+    }
+    return (System.nanoTime() - start)/count;
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+
+/**
+ * Builds a million composites, half of them nested, and reports how much the
+ * used heap and the bindings of the injector hosting their factories grow.
+ * Both must stay flat - a per-composite leak shows up as tens of megabytes.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class JustInTimeGrowthBenchmark {
+  private static final int COMPOSITES = 1000000;
+  private static final int ROUNDS = 5;
+  
+  public interface SessionFactory {
+    Session open(@Arg String user);
+  }
+  
+  public interface QueryFactory {
+    Query create(@Arg int id);
+  }
+  
+  public static class Session {
+    @Inject @Arg String user;
+    @Inject Audit audit;
+    @Inject QueryFactory queries;
+  }
+  
+  /** Not bound anywhere - built just in time */
+  public static class Query {
+    @Inject @Arg int id;
+    @Inject Session session;
+    @Inject Audit audit;
+  }
+  
+  /** Not bound anywhere and does not vary - built just in time by the host */
+  public static class Audit {
+  }
+  
+  public static void main(String[] args) {
+    Injector root = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Session.class).in(Singleton.class);
+            bind(QueryFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+              }
+            });
+          }
+        });
+      }
+    });
+    
+    SessionFactory fact = root.getInstance(SessionFactory.class);
+    
+    /* Warm up */
+    create(fact, COMPOSITES/10);
+    
+    int bindings = root.getBindings().size();
+    long before = usedHeap();
+    
+    System.out.println("round\theap growth bytes\tnew bindings");
+    for (int r = 0; r < ROUNDS; r++) {
+      create(fact, COMPOSITES);
+      System.out.println(r + "\t" + (usedHeap() - before) + "\t" 
+          + (root.getBindings().size() - bindings));
+    }
+  }
+  
+  private static void create(SessionFactory fact, int count) {
+    /* Half of the composites are sessions and half are queries nested in them */
+    for (int i = 0; i < count/2; i++) {
+      Session session = fact.open("user" + (i % 100));
+      if (session.queries.create(i).id != i) {
+        throw new AssertionError("Wrong argument in composite " + i);
+      }
+    }
+  }
+  
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+
+/**
+ * Compares eager and lazy products when the product is dropped unused and when
+ * it is used once. Prints latency and, on JVMs that can measure it, allocated
+ * bytes per call.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class LazyProductBenchmark {
+  private static final int CALLS = 100000;
+  private static final int ROUNDS = 5;
+  
+  public interface HandlerFactory {
+    Handler create(@Arg String path);
+  }
+  
+  public interface Handler {
+    String handle();
+  }
+  
+  @Singleton
+  public static class HandlerImpl implements Handler {
+    @Inject @Arg String path;
+    @Inject Session session;
+    @Inject Codec codec;
+    
+    public String handle() {
+      return path;
+    }
+  }
+  
+  @Singleton
+  public static class Session {
+    @Inject @Arg String path;
+  }
+  
+  @Singleton
+  public static class Codec {
+    @Inject Session session;
+  }
+  
+  private interface Call {
+    void run(HandlerFactory factory);
+  }
+  
+  private static final Call CREATE = new Call() {
+    public void run(HandlerFactory factory) {
+      factory.create("/");
+    }
+  };
+  
+  private static final Call CREATE_AND_USE = new Call() {
+    public void run(HandlerFactory factory) {
+      factory.create("/").handle();
+    }
+  };
+  
+  public static void main(String[] args) {
+    HandlerFactory eager = factory(false);
+    HandlerFactory lazy = factory(true);
+    
+    System.out.println("round\tcall\teager ns\tlazy ns\teager bytes\tlazy bytes");
+    for (int r = 0; r < ROUNDS; r++) {
+      report(r, "create", eager, lazy, CREATE);
+      report(r, "use", eager, lazy, CREATE_AND_USE);
+    }
+  }
+  
+  private static void report(int round, String name, HandlerFactory eager, HandlerFactory lazy, 
+      Call call) {
+    
+    long[] e = run(eager, call);
+    long[] l = run(lazy, call);
+    System.out.println(round + "\t" + name + "\t" + e[0] + "\t" + l[0] + "\t" 
+        + bytes(e[1]) + "\t" + bytes(l[1]));
+  }
+  
+  /**
+   * @return nanoseconds and allocated bytes per call.
+   */
+  private static long[] run(HandlerFactory factory, Call call) {
+    long bytes = allocated();
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      call.run(factory);
+    }
+    long time = System.nanoTime() - start;
+    bytes = allocated() - bytes;
+    return new long[] { time/CALLS, bytes < 0 ? -1 : bytes/CALLS };
+  }
+  
+  private static String bytes(long val) {
+    return val < 0 ? "n/a" : String.valueOf(val);
+  }
+  
+  /**
+   * Uses the HotSpot extension of the thread bean when present.
+   * 
+   * @return the bytes allocated by this thread or a negative number.
+   */
+  private static long allocated() {
+    try {
+      Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+      return (Long) method.invoke(ManagementFactory.getThreadMXBean(), 
+          Thread.currentThread().getId());
+    } catch (Exception e) {
+      return Long.MIN_VALUE;
+    }
+  }
+  
+  private static HandlerFactory factory(final boolean lazy) {
+    final Module composition = new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(Handler.class).to(HandlerImpl.class);
+      }
+    };
+    
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        if (lazy) {
+          bind(HandlerFactory.class).toComposition(composition).withLazyProducts();
+        } else {
+          bind(HandlerFactory.class).toComposition(composition);
+        }
+      }
+    }).getInstance(HandlerFactory.class);
+  }
+}
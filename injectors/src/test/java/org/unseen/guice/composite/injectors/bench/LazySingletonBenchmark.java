@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.Stage;
+import com.google.inject.name.Names;
+
+/**
+ * Compares the latency of a factory call in {@link Stage#PRODUCTION} with and
+ * without lazy singletons. The product reaches one singleton of a composition
+ * that binds many.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class LazySingletonBenchmark {
+  private static final int SINGLETONS = 32;
+  private static final int CALLS = 100000;
+  private static final int ROUNDS = 5;
+  
+  public interface WidgetFactory {
+    Widget create(@Arg String name);
+  }
+  
+  public static class Widget {
+    @Inject @Arg String name;
+  }
+  
+  public static class Part {
+    @Inject @Arg String name;
+  }
+  
+  public static void main(String[] args) {
+    WidgetFactory eager = factory(false);
+    WidgetFactory lazy = factory(true);
+    
+    System.out.println("round\teager ns/call\tlazy ns/call");
+    for (int r = 0; r < ROUNDS; r++) {
+      System.out.println(r + "\t" + run(eager) + "\t" + run(lazy));
+    }
+  }
+  
+  private static long run(WidgetFactory factory) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      factory.create("w");
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+  
+  private static WidgetFactory factory(final boolean lazy) {
+    final Module composition = new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(Widget.class);
+        for (int i = 0; i < SINGLETONS; i++) {
+          bind(Key.get(Part.class, Names.named("part" + i))).to(Part.class).in(Singleton.class);
+        }
+      }
+    };
+    
+    return createInjector(Stage.PRODUCTION, new CompositeModule() {
+      @Override
+      protected void configure() {
+        if (lazy) {
+          bind(WidgetFactory.class).toComposition(composition).withLazySingletons();
+        } else {
+          bind(WidgetFactory.class).toComposition(composition);
+        }
+      }
+    }).getInstance(WidgetFactory.class);
+  }
+}
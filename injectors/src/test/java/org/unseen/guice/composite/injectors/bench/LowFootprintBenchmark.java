@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+
+/**
+ * Measures the heap retained per long-lived composite with and without the low
+ * footprint mode. Every product injects the factory of a nested composition,
+ * which keeps the composite alive with the product.
+ * <p>
+ * Not a unit test - run the main method with the test classpath. Use a heap
+ * large enough to hold all composites, e.g. -Xmx1g.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class LowFootprintBenchmark {
+  private static final int COMPOSITES = 200000;
+  private static final int ROUNDS = 3;
+  
+  public interface SessionFactory {
+    Session create(@Arg("user") String user);
+  }
+  
+  public interface RequestFactory {
+    Request create(@Arg("path") String path);
+  }
+  
+  public static class Session {
+    @Inject @Arg("user") String user;
+    @Inject @Named("part0") Part p0;
+    @Inject @Named("part1") Part p1;
+    @Inject @Named("part2") Part p2;
+    @Inject @Named("part3") Part p3;
+    @Inject RequestFactory requests;
+  }
+  
+  public static class Part {
+    @Inject @Arg("user") String user;
+  }
+  
+  public static class Request {
+    @Inject @Arg("path") String path;
+    @Inject Session session;
+  }
+  
+  public static void main(String[] args) {
+    SessionFactory plain = factory(false);
+    SessionFactory compact = factory(true);
+    
+    System.out.println("round\tplain bytes/composite\tlow footprint bytes/composite");
+    for (int r = 0; r < ROUNDS; r++) {
+      System.out.println(r + "\t" + retained(plain) + "\t" + retained(compact));
+    }
+  }
+  
+  private static long retained(SessionFactory factory) {
+    Object[] held = new Object[COMPOSITES];
+    long before = usedHeap();
+    for (int i = 0; i < COMPOSITES; i++) {
+      held[i] = factory.create("u");
+    }
+    long after = usedHeap();
+    
+    /* Keep the composites reachable until measured */
+    if (held[COMPOSITES - 1] == null) {
+      throw new AssertionError();
+    }
+    return (after - before)/COMPOSITES;
+  }
+  
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+  
+  private static SessionFactory factory(final boolean compact) {
+    final Module composition = new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(Session.class).in(Singleton.class);
+        for (int i = 0; i < 4; i++) {
+          bind(Key.get(Part.class, Names.named("part" + i))).to(Part.class).in(Singleton.class);
+        }
+        
+        bind(RequestFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Request.class);
+          }
+        });
+      }
+    };
+    
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        if (compact) {
+          bind(SessionFactory.class).toComposition(composition).withLowFootprint();
+        } else {
+          bind(SessionFactory.class).toComposition(composition);
+        }
+      }
+    }).getInstance(SessionFactory.class);
+  }
+}
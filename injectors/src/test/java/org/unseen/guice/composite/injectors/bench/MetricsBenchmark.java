@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeMetrics.Phase;
+import org.unseen.guice.composite.injectors.CompositeStatistics;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.Module;
+
+/**
+ * Measures the overhead of instrumenting a factory with the built-in
+ * {@link CompositeStatistics}.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class MetricsBenchmark {
+  private static final int CALLS = 200000;
+  private static final int ROUNDS = 5;
+  
+  public interface WidgetFactory {
+    Widget create(@Arg String name);
+  }
+  
+  public static class Widget {
+    @Inject @Arg String name;
+  }
+  
+  public static void main(String[] args) throws Exception {
+    CompositeStatistics stats = new CompositeStatistics();
+    WidgetFactory plain = factory(null);
+    WidgetFactory instrumented = factory(stats);
+    
+    System.out.println("round\tplain ns/call\tinstrumented ns/call");
+    for (int r = 0; r < ROUNDS; r++) {
+      System.out.println(r + "\t" + run(plain) + "\t" + run(instrumented));
+    }
+    
+    for (Phase phase : Phase.values()) {
+      System.out.println(phase + "\t" 
+          + stats.latency(Key.get(WidgetFactory.class), 
+              WidgetFactory.class.getMethod("create", String.class), phase));
+    }
+  }
+  
+  private static long run(WidgetFactory factory) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      factory.create("w");
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+  
+  private static WidgetFactory factory(final CompositeStatistics stats) {
+    final Module composition = new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(Widget.class);
+      }
+    };
+    
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        if (stats != null) {
+          bind(WidgetFactory.class).toComposition(composition).instrumentedBy(stats);
+        } else {
+          bind(WidgetFactory.class).toComposition(composition);
+        }
+      }
+    }).getInstance(WidgetFactory.class);
+  }
+}
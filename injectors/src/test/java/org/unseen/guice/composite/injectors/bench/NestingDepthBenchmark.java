@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.lang.reflect.Method;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+
+/**
+ * Measures the cost of building a composite nested 1 to 8 levels deep whose
+ * product depends on singletons of the outermost composite.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class NestingDepthBenchmark {
+  private static final int MAX_DEPTH = 8;
+  private static final int CALLS = 200000;
+  private static final int ROUNDS = 4;
+  
+  /** A singleton of the outermost composite */
+  @Singleton
+  public static class Context {
+    @Inject @Arg String id;
+  }
+  
+  /** Every level reaches the outermost singletons a few times */
+  public static class Node {
+    @Inject Context a;
+    @Inject Context b;
+    @Inject Context c;
+    @Inject Context d;
+  }
+  
+  public interface Level0 { Node0 open(@Arg String id); }
+  public interface Level1 { Node1 create(); }
+  public interface Level2 { Node2 create(); }
+  public interface Level3 { Node3 create(); }
+  public interface Level4 { Node4 create(); }
+  public interface Level5 { Node5 create(); }
+  public interface Level6 { Node6 create(); }
+  public interface Level7 { Node7 create(); }
+  public interface Level8 { Node8 create(); }
+  
+  public static class Node0 extends Node { @Inject(optional = true) Level1 next; }
+  public static class Node1 extends Node { @Inject(optional = true) Level2 next; }
+  public static class Node2 extends Node { @Inject(optional = true) Level3 next; }
+  public static class Node3 extends Node { @Inject(optional = true) Level4 next; }
+  public static class Node4 extends Node { @Inject(optional = true) Level5 next; }
+  public static class Node5 extends Node { @Inject(optional = true) Level6 next; }
+  public static class Node6 extends Node { @Inject(optional = true) Level7 next; }
+  public static class Node7 extends Node { @Inject(optional = true) Level8 next; }
+  public static class Node8 extends Node { }
+  
+  private static final Class<?>[] LEVELS = { 
+    Level0.class, Level1.class, Level2.class, Level3.class, Level4.class,  
+    Level5.class, Level6.class, Level7.class, Level8.class 
+  };
+  
+  private static final Class<?>[] NODES = { 
+    Node0.class, Node1.class, Node2.class, Node3.class, Node4.class,  
+    Node5.class, Node6.class, Node7.class, Node8.class 
+  };
+  
+  public static void main(String[] args) {
+    System.out.println("depth\tns/composite");
+    for (int r = 0; r < ROUNDS; r++) {
+      for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+        System.out.println(depth + "\t" + run(depth));
+      }
+    }
+  }
+  
+  private static long run(int depth) {
+    Level0 root = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(Level0.class).toComposition(level(0, MAX_DEPTH));
+      }
+    }).getInstance(Level0.class);
+    
+    /* Walk down to the factory of the deepest level */
+    Object factory = root.open("root").next;
+    for (int level = 1; level < depth; level++) {
+      factory = next(create(factory, createMethod(level)));
+    }
+    
+    Method create = createMethod(depth);
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      create(factory, create);
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+  
+  private static Module level(final int level, final int depth) {
+    return new CompositeModule() {
+      @SuppressWarnings("unchecked")
+      @Override
+      protected void configure() {
+        if (level == 0) {
+          bind(Context.class);
+        }
+        bind((Class) NODES[level]);
+        if (level < depth) {
+          bind((Class) LEVELS[level + 1]).toComposition(level(level + 1, depth));
+        }
+      }
+    };
+  }
+  
+  private static Method createMethod(int level) {
+    try {
+      return LEVELS[level].getMethod("create");
+    } catch (NoSuchMethodException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private static Object create(Object factory, Method create) {
+    try {
+      return create.invoke(factory);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private static Object next(Object node) {
+    try {
+      return node.getClass().getDeclaredField("next").get(node);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
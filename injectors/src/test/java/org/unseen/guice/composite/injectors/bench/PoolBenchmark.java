@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.unseen.guice.composite.injectors.CompositePool;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+
+/**
+ * Compares call latency percentiles of a factory without arguments with and
+ * without a pool of composites built ahead of time. Calls arrive at a steady
+ * rate that leaves the background thread time to refill.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class PoolBenchmark {
+  private static final int CALLS = 5000;
+  private static final int ROUNDS = 3;
+  private static final long INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+  
+  public interface PipelineFactory {
+    Pipeline create();
+  }
+  
+  public static class Pipeline {
+    @Inject Stage1 first;
+    @Inject Stage2 second;
+  }
+  
+  /** Expensive to set up */
+  public static class Stage1 {
+    final int[] table = table(4096);
+  }
+  
+  public static class Stage2 {
+    final int[] table = table(4096);
+  }
+  
+  static int[] table(int size) {
+    int[] table = new int[size];
+    for (int i = 1; i < size; i++) {
+      table[i] = table[i - 1]*31 + i;
+    }
+    return table;
+  }
+  
+  private static final Module COMPOSITION = new AbstractModule() {
+    @Override
+    protected void configure() {
+      bind(Pipeline.class);
+    }
+  };
+  
+  public static void main(String[] args) {
+    PipelineFactory inline = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(PipelineFactory.class).toComposition(COMPOSITION);
+      }
+    }).getInstance(PipelineFactory.class);
+    
+    final CompositePool pool = new CompositePool(64, 1, TimeUnit.MILLISECONDS);
+    PipelineFactory pooled = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(PipelineFactory.class).toComposition(COMPOSITION).pooledIn(pool);
+      }
+    }).getInstance(PipelineFactory.class);
+    
+    System.out.println("round\tfactory\tp50 ns\tp99 ns");
+    for (int r = 0; r < ROUNDS; r++) {
+      report(r, "inline", run(inline));
+      report(r, "pooled", run(pooled));
+    }
+    System.out.println(pool);
+    pool.shutdown();
+  }
+  
+  private static void report(int round, String name, long[] latencies) {
+    Arrays.sort(latencies);
+    System.out.println(round + "\t" + name + "\t" + latencies[latencies.length/2] + "\t" 
+        + latencies[latencies.length*99/100]);
+  }
+  
+  private static long[] run(PipelineFactory factory) {
+    long[] latencies = new long[CALLS];
+    for (int i = 0; i < CALLS; i++) {
+      long start = System.nanoTime();
+      factory.create();
+      latencies[i] = System.nanoTime() - start;
+      LockSupport.parkNanos(INTERVAL_NANOS);
+    }
+    return latencies;
+  }
+}
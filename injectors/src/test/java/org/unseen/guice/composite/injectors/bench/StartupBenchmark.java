@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.bench;
+
+import static com.google.inject.Guice.createInjector;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositePreparation;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+import org.unseen.guice.composite.injectors.binder.CompositionBindingBuilder;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.Stage;
+import com.google.inject.name.Names;
+
+/**
+ * Compares the time to create an injector that hosts many compositions with
+ * and without preparing them in parallel.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class StartupBenchmark {
+  private static final int COMPOSITIONS = 200;
+  private static final int SINGLETONS = 32;
+  private static final int ROUNDS = 5;
+  
+  public interface WidgetFactory {
+    Widget create(@Arg String name);
+  }
+  
+  public static class Widget {
+    @Inject @Arg String name;
+  }
+  
+  public static class Part {
+    @Inject @Arg String name;
+  }
+  
+  public static void main(String[] args) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (threads == 1) {
+      System.out.println("a single CPU - the rounds can't show a parallel speedup");
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      System.out.println("round\tserial ms\tprepared on " + threads + " threads ms");
+      for (int r = 0; r < ROUNDS; r++) {
+        System.out.println(r + "\t" + run(null) + "\t" + run(new CompositePreparation(executor)));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  private static long run(final CompositePreparation prep) {
+    long start = System.nanoTime();
+    
+    createInjector(Stage.PRODUCTION, new CompositeModule() {
+      @Override
+      protected void configure() {
+        for (int i = 0; i < COMPOSITIONS; i++) {
+          CompositionBindingBuilder composition = 
+            bind(Key.get(WidgetFactory.class, Names.named("widget" + i))).toComposition(module());
+          if (prep != null) {
+            composition.preparedBy(prep);
+          }
+        }
+      }
+    });
+    
+    return (System.nanoTime() - start)/1000000;
+  }
+  
+  private static Module module() {
+    return new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(Widget.class);
+        for (int i = 0; i < SINGLETONS; i++) {
+          bind(Key.get(Part.class, Names.named("part" + i))).to(Part.class).in(Singleton.class);
+        }
+      }
+    };
+  }
+}
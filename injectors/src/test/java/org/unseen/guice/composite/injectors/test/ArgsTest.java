@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.Args;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class ArgsTest {
+  public static class Connection {
+    @Inject @Arg("host") String host;
+  }
+  
+  @Test
+  public void testMatchesAnnotation() throws NoSuchFieldException {
+    Arg real = Connection.class.getDeclaredField("host").getAnnotation(Arg.class);
+    Arg made = Args.arg("host");
+    
+    assertEquals("host", made.value());
+    assertEquals(real, made);
+    assertEquals(made, real);
+    assertEquals(real.hashCode(), made.hashCode());
+    assertEquals(Key.get(String.class, real), Key.get(String.class, made));
+  }
+  
+  @Test
+  public void testBindsNamedArgument() {
+    Connection conn = createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(String.class).annotatedWith(Args.arg("host")).toInstance("localhost");
+      }
+    }).getInstance(Connection.class);
+    
+    assertEquals("localhost", conn.host);
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeBatch;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class BatchTest {
+  public interface PartitionFactory {
+    Partition create(@Arg("topic") String topic, @Arg("index") Integer index);
+  }
+  
+  public static class Partition {
+    @Inject @Arg("topic") String topic;
+    @Inject @Arg("index") Integer index;
+    @Inject Log log;
+  }
+  
+  @Singleton
+  public static class Log {
+    static int built;
+    
+    @Inject @Arg("index") Integer index;
+    
+    public Log() {
+      built++;
+    }
+  }
+  
+  public interface FileFactory {
+    File open(@Arg("path") String path) throws IOException;
+  }
+  
+  public static class File {
+    @Inject
+    public File(@Arg("path") String path) throws IOException {
+      throw new IOException(path);
+    }
+  }
+  
+  private static PartitionFactory factory() {
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(PartitionFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Partition.class);
+          }
+        });
+      }
+    }).getInstance(PartitionFactory.class);
+  }
+  
+  private static Method create() throws NoSuchMethodException {
+    return PartitionFactory.class.getMethod("create", String.class, Integer.class);
+  }
+  
+  private static List<Object[]> calls(int count) {
+    List<Object[]> calls = new ArrayList<Object[]>();
+    for (int i = 0; i < count; i++) {
+      calls.add(new Object[] { "t", i });
+    }
+    return calls;
+  }
+  
+  /** An endless source of arguments that counts what was pulled from it */
+  private static class Source implements Iterator<Object[]> {
+    int pulled;
+    
+    public boolean hasNext() {
+      return true;
+    }
+
+    public Object[] next() {
+      return new Object[] { "t", pulled++ };
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+  
+  private static List<Object> take(Iterator<Object> products, int count) {
+    List<Object> taken = new ArrayList<Object>();
+    for (int i = 0; i < count; i++) {
+      taken.add(products.next());
+    }
+    return taken;
+  }
+  
+  private static void check(List<Object> products) {
+    for (int i = 0; i < products.size(); i++) {
+      Partition part = (Partition) products.get(i);
+      assertEquals("t", part.topic);
+      assertEquals(Integer.valueOf(i), part.index);
+      assertEquals(Integer.valueOf(i), part.log.index);
+    }
+    assertNotSame(((Partition) products.get(0)).log, ((Partition) products.get(1)).log);
+  }
+  
+  @Test
+  public void testSerial() throws Exception {
+    List<Object> products = CompositeBatch.build(factory(), create(), calls(10));
+    assertEquals(10, products.size());
+    check(products);
+  }
+  
+  @Test
+  public void testParallel() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Object> products = CompositeBatch.build(factory(), create(), calls(100), executor);
+      assertEquals(100, products.size());
+      check(products);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  @Test
+  public void testBadArguments() throws Exception {
+    List<Object[]> calls = new ArrayList<Object[]>();
+    calls.add(new Object[] { "t" });
+    
+    try {
+      CompositeBatch.build(factory(), create(), calls);
+      fail();
+    } catch (IllegalArgumentException e) {
+      /* Expected */
+    }
+    
+    try {
+      CompositeBatch.build(new Object(), create(), calls(1));
+      fail();
+    } catch (IllegalArgumentException e) {
+      /* Expected */
+    }
+  }
+  
+  @Test
+  public void testBadArgumentTypes() throws Exception {
+    List<Object[]> calls = calls(3);
+    calls.add(new Object[] { "t", "4" });
+    
+    Log.built = 0;
+    try {
+      CompositeBatch.build(factory(), create(), calls);
+      fail();
+    } catch (IllegalArgumentException e) {
+      /* Expected */
+    }
+    /* Nothing is built before all arguments are checked */
+    assertEquals(0, Log.built);
+  }
+  
+  @Test
+  public void testDeclaredException() throws Exception {
+    FileFactory files = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(FileFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(File.class);
+          }
+        });
+      }
+    }).getInstance(FileFactory.class);
+    
+    List<Object[]> calls = new ArrayList<Object[]>();
+    calls.add(new Object[] { "a" });
+    
+    try {
+      CompositeBatch.build(files, FileFactory.class.getMethod("open", String.class), calls);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e instanceof IOException);
+    }
+  }
+  
+  @Test
+  public void testStream() throws Exception {
+    Source source = new Source();
+    Iterator<Object> products = CompositeBatch.stream(factory(), create(), source);
+    
+    check(take(products, 10));
+    assertEquals(10, source.pulled);
+  }
+  
+  @Test
+  public void testParallelStream() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Source source = new Source();
+      Iterator<Object> products = CompositeBatch.stream(factory(), create(), source, executor, 8);
+      
+      check(take(products, 100));
+      assertTrue(source.pulled <= 100 + 8);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
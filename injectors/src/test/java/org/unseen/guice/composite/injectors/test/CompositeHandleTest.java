@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static com.google.inject.Scopes.SINGLETON;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeHandle;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class CompositeHandleTest {
+  static final List<String> closed = new ArrayList<String>();
+  
+  public interface ConnectionFactory {
+    Connection create(@Arg("host") String host);
+  }
+  
+  public interface RequestFactory {
+    Request create(@Arg("path") String path);
+  }
+  
+  public static class Connection {
+    @Inject CompositeHandle handle;
+    @Inject Socket socket;
+    @Inject Registry registry;
+    @Inject RequestFactory requests;
+  }
+  
+  /** Varies with the connection */
+  public static class Socket implements Closeable {
+    @Inject @Arg("host") String host;
+    
+    public void close() {
+      closed.add("socket " + host);
+    }
+  }
+  
+  /** Shared by all connections */
+  public static class Registry implements Closeable {
+    public void close() {
+      closed.add("registry");
+    }
+  }
+  
+  public interface SessionFactory {
+    Session create(@Arg("user") String user);
+  }
+  
+  public static class Session {
+    @Inject CompositeHandle handle;
+    @Inject Pool pool;
+    @Inject Cursor cursor;
+  }
+  
+  /** Owned by the application and handed to every session */
+  public static class Pool implements Closeable {
+    public void close() {
+      closed.add("pool");
+    }
+  }
+  
+  public interface Cursor extends Closeable {
+  }
+  
+  public static class CursorImpl implements Cursor {
+    @Inject @Arg("user") String user;
+    
+    public void close() {
+      closed.add("cursor " + user);
+    }
+  }
+  
+  public static class Request {
+    @Inject CompositeHandle handle;
+    @Inject Connection connection;
+  }
+  
+  private static ConnectionFactory factory() {
+    Injector inj = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(ConnectionFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Connection.class).in(SINGLETON);
+            bind(Socket.class).in(SINGLETON);
+            bind(Registry.class).in(SINGLETON);
+            
+            bind(RequestFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Request.class);
+              }
+            });
+          }
+        }).withSharedSingletons();
+      }
+    });
+    return inj.getInstance(ConnectionFactory.class);
+  }
+  
+  @Test
+  public void testClose() {
+    closed.clear();
+    
+    ConnectionFactory fact = factory();
+    Connection a = fact.create("a");
+    Connection b = fact.create("b");
+    
+    a.handle.onClose(new Runnable() {
+      public void run() {
+        closed.add("callback");
+      }
+    });
+    
+    assertFalse(a.handle.isClosed());
+    a.handle.close();
+    a.handle.close();
+    
+    assertTrue(a.handle.isClosed());
+    assertFalse(b.handle.isClosed());
+    assertEquals(asList("callback", "socket a"), closed);
+  }
+  
+  @Test
+  public void testNestedHandles() {
+    closed.clear();
+    
+    Connection conn = factory().create("a");
+    Request req = conn.requests.create("/");
+    
+    assertSame(conn, req.connection);
+    assertFalse(conn.handle == req.handle);
+    
+    req.handle.close();
+    assertFalse(conn.handle.isClosed());
+    assertTrue(closed.isEmpty());
+  }
+  
+  @Test
+  public void testClosedRefusesNested() {
+    Connection conn = factory().create("a");
+    conn.handle.close();
+    
+    try {
+      conn.requests.create("/");
+      fail();
+    } catch (RuntimeException e) {
+      /* Expected */
+    }
+    
+    try {
+      conn.handle.onClose(new Runnable() {
+        public void run() {
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      /* Expected */
+    }
+  }
+  
+  @Test
+  public void testProvidedNotClosed() {
+    closed.clear();
+    
+    final Pool pool = new Pool();
+    SessionFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Session.class).in(SINGLETON);
+            bind(Cursor.class).to(CursorImpl.class).in(SINGLETON);
+          }
+          
+          @Provides @Singleton
+          Pool pool(@Arg("user") String user) {
+            return pool;
+          }
+        });
+      }
+    }).getInstance(SessionFactory.class);
+    
+    Session session = fact.create("a");
+    assertSame(pool, session.pool);
+    
+    session.handle.close();
+    assertEquals(asList("cursor a"), closed);
+  }
+}
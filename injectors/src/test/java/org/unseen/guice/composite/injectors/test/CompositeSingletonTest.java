@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static com.google.inject.Scopes.SINGLETON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class CompositeSingletonTest {
+  public interface PairFactory {
+    Pair create(@Arg("name") String name);
+    
+    Pair create(@Arg("name") String name, @Arg("size") Integer size);
+  }
+  
+  public interface Pair {
+    Part left();
+    Part right();
+    Helper leftHelper();
+    Helper rightHelper();
+  }
+  
+  public static class PairImpl implements Pair {
+    private final Part left;
+    private final Part right;
+    private final Helper leftHelper;
+    private final Helper rightHelper;
+    
+    @Inject
+    public PairImpl(Part left, Part right, Helper leftHelper, Helper rightHelper) {
+      this.left = left;
+      this.right = right;
+      this.leftHelper = leftHelper;
+      this.rightHelper = rightHelper;
+    }
+    
+    public Part left() {
+      return left;
+    }
+    
+    public Part right() {
+      return right;
+    }
+    
+    public Helper leftHelper() {
+      return leftHelper;
+    }
+    
+    public Helper rightHelper() {
+      return rightHelper;
+    }
+  }
+  
+  public static class Part {
+    private final String name;
+    
+    @Inject
+    public Part(@Arg("name") String name) {
+      this.name = name;
+    }
+    
+    public String name() {
+      return name;
+    }
+  }
+  
+  public static class Helper {
+  }
+  
+  @Singleton
+  public static class SingletonPart extends Part {
+    @Inject
+    public SingletonPart(@Arg("name") String name) {
+      super(name);
+    }
+  }
+  
+  @Test
+  public void testSingletonPerComposite() {
+    PairFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(PairFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Pair.class).to(PairImpl.class);
+            bind(Part.class).in(SINGLETON);
+          }
+        });
+      }
+    }).getInstance(PairFactory.class);
+    
+    Pair p1 = fact.create("one");
+    Pair p2 = fact.create("two", 2);
+    
+    assertTrue(p1.left() == p1.right());
+    assertTrue(p2.left() == p2.right());
+    assertTrue(p1.left() != p2.left());
+    
+    assertEquals("one", p1.left().name());
+    assertEquals("two", p2.left().name());
+    
+    /* Unscoped bindings still get a fresh instance per injection */
+    assertTrue(p1.leftHelper() != p1.rightHelper());
+  }
+  
+  @Test
+  public void testSingletonClassPerComposite() {
+    PairFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(PairFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Pair.class).to(PairImpl.class);
+            bind(Part.class).to(SingletonPart.class);
+          }
+        });
+      }
+    }).getInstance(PairFactory.class);
+    
+    Pair p1 = fact.create("one");
+    Pair p2 = fact.create("two");
+    
+    assertTrue(p1.left() == p1.right());
+    assertTrue(p1.left() != p2.left());
+    assertEquals("one", p1.left().name());
+    assertEquals("two", p2.right().name());
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class EscapeTest {
+  public interface OrderFactory {
+    Object create(@Arg("id") String id);
+  }
+  
+  public interface TwoWayFactory {
+    Order order(@Arg("id") String id);
+    Invoice invoice(@Arg("number") String number);
+  }
+  
+  public static class Line {
+    @Inject @Arg("id") String id;
+  }
+  
+  @Singleton
+  public static class Cart {
+  }
+  
+  public static class Clock {
+  }
+  
+  public static class Order {
+    @Inject @Arg("id") String id;
+  }
+  
+  public static class Invoice {
+    @Inject @Arg("number") String number;
+    @Inject Order order;
+  }
+  
+  public static class ProviderOfLine {
+    @Inject Provider<Line> lines;
+  }
+  
+  public static class ProviderOfSingleton {
+    @Inject Provider<Cart> carts;
+  }
+  
+  public static class InjectorHolder {
+    @Inject Injector injector;
+  }
+  
+  public static class ProviderOfShared {
+    @Inject @Arg("id") String id;
+    @Inject Provider<Clock> clocks;
+  }
+  
+  @Test
+  public void testProviderOfVaryingKey() {
+    checkRejected(ProviderOfLine.class);
+  }
+  
+  @Test
+  public void testProviderOfSingleton() {
+    checkRejected(ProviderOfSingleton.class);
+  }
+  
+  @Test
+  public void testInjector() {
+    checkRejected(InjectorHolder.class);
+  }
+  
+  @Test
+  public void testProviderOfSharedKey() {
+    ProviderOfShared product = (ProviderOfShared) factory(ProviderOfShared.class).create("a");
+    assertEquals("a", product.id);
+    assertNotNull(product.clocks.get());
+  }
+  
+  @Test
+  public void testArgumentOfAnotherMethod() {
+    try {
+      createInjector(new CompositeModule() {
+        @Override
+        protected void configure() {
+          bind(TwoWayFactory.class).toComposition(new AbstractModule() {
+            @Override
+            protected void configure() {
+              bind(Order.class);
+              bind(Invoice.class);
+            }
+          });
+        }
+      });
+      fail();
+    } catch (CreationException e) {
+      /* Expected */
+    }
+  }
+  
+  private static void checkRejected(Class<?> product) {
+    try {
+      factory(product);
+      fail();
+    } catch (CreationException e) {
+      /* Expected */
+    }
+  }
+  
+  private static OrderFactory factory(final Class<?> product) {
+    Injector inj = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        Module composition = new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Object.class).to(product);
+            /* Every composite has its own */
+            bind(Cart.class);
+          }
+        };
+        bind(OrderFactory.class).toComposition(composition);
+      }
+    });
+    return inj.getInstance(OrderFactory.class);
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.Inject;
+import com.google.inject.matcher.Matchers;
+
+/**
+ * Checks that the classes Guice enhances to apply interceptors are generated
+ * once per composition and reused by all its composites.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class InterceptionTest {
+  /** Enough for a class per composite to stand out - the long run is InterceptionBenchmark */
+  private static final int COMPOSITES = 2000;
+  /** Slack for classes the JVM itself loads lazily during the run */
+  private static final int MAX_NEW_CLASSES = 50;
+  
+  public interface AccountFactory {
+    Account open(@Arg String owner);
+  }
+  
+  public static class Account {
+    @Inject @Arg String owner;
+    
+    public String owner() {
+      return owner;
+    }
+  }
+  
+  private static AccountFactory factory(final AtomicInteger calls) {
+    final MethodInterceptor counter = new MethodInterceptor() {
+      public Object invoke(MethodInvocation invocation) throws Throwable {
+        calls.incrementAndGet();
+        return invocation.proceed();
+      }
+    };
+    
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(AccountFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bindInterceptor(Matchers.only(Account.class), 
+                Matchers.returns(Matchers.only(String.class)), counter);
+            bind(Account.class);
+          }
+        });
+      }
+    }).getInstance(AccountFactory.class);
+  }
+  
+  @Test
+  public void testEnhancedClassShared() {
+    AtomicInteger calls = new AtomicInteger();
+    AccountFactory fact = factory(calls);
+    
+    Account a = fact.open("a");
+    Account b = fact.open("b");
+    assertNotSame(a, b);
+    assertNotSame(Account.class, a.getClass());
+    assertSame(a.getClass(), b.getClass());
+    
+    assertEquals("a", a.owner());
+    assertEquals("b", b.owner());
+    assertEquals(2, calls.get());
+  }
+  
+  @Test
+  public void testClassesFlat() {
+    AtomicInteger calls = new AtomicInteger();
+    AccountFactory fact = factory(calls);
+    
+    /* Warm up */
+    for (int i = 0; i < COMPOSITES/10; i++) {
+      fact.open("owner").owner();
+    }
+    
+    ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+    long before = classes.getTotalLoadedClassCount();
+    
+    for (int i = 0; i < COMPOSITES; i++) {
+      fact.open("owner").owner();
+    }
+    
+    long loaded = classes.getTotalLoadedClassCount() - before;
+    assertTrue("Loaded " + loaded + " classes", loaded < MAX_NEW_CLASSES);
+    assertEquals(COMPOSITES + COMPOSITES/10, calls.get());
+  }
+}
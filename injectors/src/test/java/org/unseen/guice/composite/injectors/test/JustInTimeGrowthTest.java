@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+
+/**
+ * Checks that building composites does not add bindings to the injector
+ * hosting their factories. The heap growth over a long run is measured by
+ * {@code JustInTimeGrowthBenchmark}.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class JustInTimeGrowthTest {
+  private static final int COMPOSITES = 1000;
+  
+  public interface SessionFactory {
+    Session open(@Arg String user);
+  }
+  
+  public interface QueryFactory {
+    Query create(@Arg int id);
+  }
+  
+  public static class Session {
+    @Inject @Arg String user;
+    @Inject Audit audit;
+    @Inject QueryFactory queries;
+  }
+  
+  /** Not bound anywhere - built just in time */
+  public static class Query {
+    @Inject @Arg int id;
+    @Inject Session session;
+    @Inject Audit audit;
+  }
+  
+  /** Not bound anywhere and does not vary - built just in time by the host */
+  public static class Audit {
+  }
+  
+  @Test
+  public void testFlatHost() {
+    Injector root = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Session.class).in(Singleton.class);
+            bind(QueryFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+              }
+            });
+          }
+        });
+      }
+    });
+    
+    SessionFactory fact = root.getInstance(SessionFactory.class);
+    
+    /* The first composites reach the just-in-time bindings */
+    create(fact, 2);
+    int bindings = root.getBindings().size();
+    
+    create(fact, COMPOSITES);
+    assertEquals(bindings, root.getBindings().size());
+  }
+  
+  private static void create(SessionFactory fact, int count) {
+    /* Half of the composites are sessions and half are queries nested in them */
+    for (int i = 0; i < count/2; i++) {
+      Session session = fact.open("user" + (i % 100));
+      assertEquals(i, session.queries.create(i).id);
+    }
+  }
+}
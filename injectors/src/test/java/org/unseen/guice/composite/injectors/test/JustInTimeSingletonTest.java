@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Singleton classes the composition reaches without binding them.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class JustInTimeSingletonTest {
+  public interface OrderFactory {
+    Order create(@Arg String customer);
+  }
+  
+  public interface LineFactory {
+    Line create(@Arg("sku") String sku);
+  }
+  
+  public static class Order {
+    @Inject Invoice invoice;
+    @Inject Invoice again;
+    @Inject LineFactory lines;
+  }
+  
+  public static class Line {
+    @Inject Invoice invoice;
+  }
+  
+  /** Reached only through Order and varies through Customer */
+  @Singleton
+  public static class Invoice {
+    @Inject Customer customer;
+  }
+  
+  public static class Customer {
+    @Inject @Arg String name;
+  }
+  
+  @Test
+  public void testVaryingSingletonPerComposite() {
+    OrderFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(OrderFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Order.class);
+            bind(LineFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Line.class);
+              }
+            });
+          }
+        });
+      }
+    }).getInstance(OrderFactory.class);
+    
+    Order a = fact.create("a");
+    Order b = fact.create("b");
+    
+    assertSame(a.invoice, a.again);
+    assertNotSame(a.invoice, b.invoice);
+    assertEquals("a", a.invoice.customer.name);
+    assertEquals("b", b.invoice.customer.name);
+    
+    /* Reached by the outer composition first so nested composites share it */
+    assertSame(a.invoice, a.lines.create("x").invoice);
+    assertSame(b.invoice, b.lines.create("x").invoice);
+  }
+}
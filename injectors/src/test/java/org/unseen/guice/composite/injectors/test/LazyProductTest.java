@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class LazyProductTest {
+  private static final AtomicInteger built = new AtomicInteger();
+  
+  public interface DocumentFactory {
+    Document open(@Arg String name);
+    
+    DocumentImpl openNow(@Arg String name);
+  }
+  
+  public interface Document {
+    String name();
+  }
+  
+  interface DraftFactory {
+    Draft open(@Arg String name);
+  }
+  
+  /** Package-private - the stand-in must break in to call it */
+  interface Draft {
+    String name();
+  }
+  
+  static class DraftImpl implements Draft {
+    @Inject @Arg String name;
+    
+    public String name() {
+      return name;
+    }
+  }
+  
+  public interface FileFactory {
+    Document open(@Arg String name) throws IOException;
+  }
+  
+  public static class MissingDocument implements Document {
+    @Inject
+    public MissingDocument(@Arg String name) throws IOException {
+      throw new IOException(name);
+    }
+    
+    public String name() {
+      return null;
+    }
+  }
+  
+  public static class DocumentImpl implements Document {
+    private final String name;
+    
+    @Inject
+    public DocumentImpl(@Arg String name) {
+      this.name = name;
+      built.incrementAndGet();
+    }
+    
+    public String name() {
+      return name;
+    }
+  }
+  
+  private static DocumentFactory factory() {
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(DocumentFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Document.class).to(DocumentImpl.class);
+          }
+        }).withLazyProducts();
+      }
+    }).getInstance(DocumentFactory.class);
+  }
+  
+  @Test
+  public void testDeferred() {
+    built.set(0);
+    DocumentFactory fact = factory();
+    
+    Document doc = fact.open("a");
+    assertEquals(0, built.get());
+    
+    /* Identity does not build the product */
+    assertTrue(doc.equals(doc));
+    assertFalse(doc.equals(fact.open("a")));
+    doc.hashCode();
+    assertEquals(0, built.get());
+    
+    assertEquals("a", doc.name());
+    assertEquals("a", doc.name());
+    assertEquals(1, built.get());
+  }
+  
+  @Test
+  public void testClassResultBuiltNow() {
+    built.set(0);
+    factory().openNow("a");
+    assertEquals(1, built.get());
+  }
+  
+  @Test
+  public void testConcurrentFirstUse() throws InterruptedException {
+    built.set(0);
+    final Document doc = factory().open("a");
+    
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            doc.name();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    
+    assertEquals(1, built.get());
+  }
+  
+  @Test
+  public void testPackagePrivateProduct() {
+    DraftFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(DraftFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Draft.class).to(DraftImpl.class);
+          }
+        }).withLazyProducts();
+      }
+    }).getInstance(DraftFactory.class);
+    
+    assertEquals("a", fact.open("a").name());
+  }
+  
+  @Test
+  public void testCheckedExceptionWrapped() throws IOException {
+    FileFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(FileFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Document.class).to(MissingDocument.class);
+          }
+        }).withLazyProducts();
+      }
+    }).getInstance(FileFactory.class);
+    
+    Document doc = fact.open("a");
+    for (int i = 0; i < 2; i++) {
+      try {
+        doc.name();
+        fail();
+      } catch (ProvisionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+  }
+  
+  @Test
+  public void testNullProduct() {
+    DocumentFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(DocumentFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Document.class).toProvider(new Provider<Document>() {
+              public Document get() {
+                return null;
+              }
+            });
+          }
+        }).withLazyProducts();
+      }
+    }).getInstance(DocumentFactory.class);
+    
+    try {
+      fact.open("a").name();
+      fail();
+    } catch (ProvisionException e) {
+      assertTrue(e.getMessage().contains("null"));
+    }
+  }
+  
+  @Test
+  public void testCalledMethodLeftAlone() throws Throwable {
+    DraftFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(DraftFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Draft.class).to(DraftImpl.class);
+          }
+        }).withLazyProducts();
+      }
+    }).getInstance(DraftFactory.class);
+    
+    Draft draft = fact.open("a");
+    Method name = Draft.class.getDeclaredMethod("name");
+    assertEquals("a", Proxy.getInvocationHandler(draft).invoke(draft, name, null));
+    assertFalse(name.isAccessible());
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.Stage;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class LazySingletonTest {
+  public interface ReportFactory {
+    Report create(@Arg String title);
+  }
+  
+  public static class Report {
+    @Inject @Arg String title;
+  }
+  
+  /** Not reached by the report */
+  public static class Unused {
+    static int built;
+    
+    @Inject 
+    public Unused(@Arg String title) {
+      built++;
+    }
+  }
+  
+  /** Not reached by the report but requested to be eager */
+  public static class Eager {
+    static int built;
+    
+    @Inject 
+    public Eager(@Arg String title) {
+      built++;
+    }
+  }
+  
+  private static ReportFactory factory(final boolean lazy) {
+    final Module composition = new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(Report.class);
+        bind(Unused.class).in(Singleton.class);
+        bind(Eager.class).asEagerSingleton();
+      }
+    };
+    
+    return createInjector(Stage.PRODUCTION, new CompositeModule() {
+      @Override
+      protected void configure() {
+        if (lazy) {
+          bind(ReportFactory.class).toComposition(composition).withLazySingletons();
+        } else {
+          bind(ReportFactory.class).toComposition(composition);
+        }
+      }
+    }).getInstance(ReportFactory.class);
+  }
+  
+  @Test
+  public void testEagerInProduction() {
+    Unused.built = Eager.built = 0;
+    
+    ReportFactory fact = factory(false);
+    fact.create("a");
+    fact.create("b");
+    
+    assertEquals(2, Unused.built);
+    assertEquals(2, Eager.built);
+  }
+  
+  @Test
+  public void testLazy() {
+    Unused.built = Eager.built = 0;
+    
+    ReportFactory fact = factory(true);
+    assertEquals("a", fact.create("a").title);
+    fact.create("b");
+    
+    assertEquals(0, Unused.built);
+    assertEquals(2, Eager.built);
+  }
+}
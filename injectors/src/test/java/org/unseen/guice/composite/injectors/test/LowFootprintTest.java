@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static com.google.inject.Scopes.SINGLETON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class LowFootprintTest {
+  public interface SessionFactory {
+    Session create(@Arg("user") String user);
+  }
+  
+  public interface RequestFactory {
+    Request create(@Arg("path") String path);
+  }
+  
+  public static class Session {
+    @Inject @Arg("user") String user;
+    @Inject RequestFactory requests;
+  }
+  
+  /** Not reached until a request is built in the sealed session */
+  public static class Audit {
+    @Inject @Arg("user") String user;
+  }
+  
+  public static class Request {
+    @Inject @Arg("path") String path;
+    @Inject Session session;
+    @Inject Audit audit;
+  }
+  
+  @Test
+  public void testSealedSessionServesRequests() {
+    SessionFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Session.class).in(SINGLETON);
+            bind(Audit.class).in(SINGLETON);
+            
+            bind(RequestFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Request.class);
+              }
+            }).withLowFootprint();
+          }
+        }).withLowFootprint();
+      }
+    }).getInstance(SessionFactory.class);
+    
+    Session alice = fact.create("alice");
+    Request r1 = alice.requests.create("/a");
+    Request r2 = alice.requests.create("/b");
+    
+    assertEquals("/a", r1.path);
+    assertSame(alice, r1.session);
+    assertEquals("alice", r1.audit.user);
+    assertSame(r1.audit, r2.audit);
+    
+    Session bob = fact.create("bob");
+    Request r3 = bob.requests.create("/a");
+    assertSame(bob, r3.session);
+    assertEquals("bob", r3.audit.user);
+    assertNotSame(r1.audit, r3.audit);
+  }
+}
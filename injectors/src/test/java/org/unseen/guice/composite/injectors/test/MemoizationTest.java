@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static com.google.inject.Scopes.SINGLETON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeCache;
+import org.unseen.guice.composite.injectors.CompositeHandle;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.ProvisionException;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class MemoizationTest {
+  public interface TenantFactory {
+    Tenant create(@Arg String id);
+  }
+  
+  public interface PlainTenantFactory {
+    Tenant create(@Arg String id);
+  }
+  
+  public interface UserFactory {
+    User create(@Arg("name") String name);
+  }
+  
+  public static class Tenant {
+    @Inject @Arg String id;
+    @Inject CompositeHandle handle;
+    @Inject UserFactory users;
+  }
+  
+  public static class User {
+    @Inject @Arg("name") String name;
+    @Inject Tenant tenant;
+  }
+  
+  private static Injector injector(final CompositeCache cache) {
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        CompositeModule tenant = new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Tenant.class).in(SINGLETON);
+            bind(UserFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(User.class);
+              }
+            }).memoizedIn(cache);
+          }
+        };
+        
+        bind(TenantFactory.class).toComposition(tenant).memoizedIn(cache);
+        bind(PlainTenantFactory.class).toComposition(tenant);
+      }
+    });
+  }
+  
+  @Test
+  public void testMemoized() {
+    CompositeCache cache = new CompositeCache(10);
+    TenantFactory fact = injector(cache).getInstance(TenantFactory.class);
+    
+    Tenant a = fact.create("a");
+    assertEquals("a", a.id);
+    assertSame(a, fact.create("a"));
+    assertNotSame(a, fact.create("b"));
+    
+    assertEquals(1, cache.hits());
+    assertEquals(2, cache.misses());
+    assertEquals(2, cache.size());
+  }
+  
+  @Test
+  public void testOptOut() {
+    CompositeCache cache = new CompositeCache(10);
+    PlainTenantFactory fact = injector(cache).getInstance(PlainTenantFactory.class);
+    
+    assertNotSame(fact.create("a"), fact.create("a"));
+    assertEquals(0, cache.hits() + cache.misses());
+  }
+  
+  @Test
+  public void testLeastRecentlyUsedEvicted() {
+    CompositeCache cache = new CompositeCache(2);
+    TenantFactory fact = injector(cache).getInstance(TenantFactory.class);
+    
+    Tenant a = fact.create("a");
+    Tenant b = fact.create("b");
+    /* Touch "a" so that "b" becomes the eldest */
+    assertSame(a, fact.create("a"));
+    fact.create("c");
+    
+    assertEquals(2, cache.size());
+    assertSame(a, fact.create("a"));
+    assertNotSame(b, fact.create("b"));
+  }
+  
+  @Test
+  public void testExpired() throws InterruptedException {
+    CompositeCache cache = new CompositeCache(10, 20, TimeUnit.MILLISECONDS);
+    TenantFactory fact = injector(cache).getInstance(TenantFactory.class);
+    
+    Tenant a = fact.create("a");
+    Thread.sleep(50);
+    assertNotSame(a, fact.create("a"));
+    
+    Thread.sleep(50);
+    cache.evictExpired();
+    assertEquals(0, cache.size());
+  }
+  
+  @Test
+  public void testClosedProductDropped() {
+    CompositeCache cache = new CompositeCache(10);
+    TenantFactory fact = injector(cache).getInstance(TenantFactory.class);
+    
+    Tenant a = fact.create("a");
+    assertEquals(1, cache.size());
+    
+    a.handle.close();
+    assertEquals(0, cache.size());
+    
+    Tenant again = fact.create("a");
+    assertNotSame(a, again);
+    assertFalse(again.handle.isClosed());
+  }
+  
+  @Test
+  public void testClosedContextNotServed() {
+    CompositeCache cache = new CompositeCache(10);
+    TenantFactory fact = injector(cache).getInstance(TenantFactory.class);
+    
+    Tenant a = fact.create("a");
+    User u = a.users.create("u");
+    assertSame(a, u.tenant);
+    assertSame(u, a.users.create("u"));
+    
+    a.handle.close();
+    try {
+      a.users.create("u");
+      fail("Served a product of a closed composite");
+    } catch (ProvisionException e) {
+      /* Built into the closed composite which refuses it */
+    }
+    
+    cache.evictExpired();
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositeCache;
+import org.unseen.guice.composite.injectors.CompositeMetrics.Phase;
+import org.unseen.guice.composite.injectors.CompositeStatistics;
+import org.unseen.guice.composite.injectors.LatencyHistogram;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class MetricsTest {
+  public interface JobFactory {
+    Job create(@Arg String name);
+  }
+  
+  public static class Job {
+    @Inject
+    public Job(@Arg String name) {
+      if (name == null) {
+        throw new IllegalArgumentException();
+      }
+    }
+  }
+  
+  @Test
+  public void testPhases() throws NoSuchMethodException {
+    final CompositeStatistics stats = new CompositeStatistics();
+    
+    JobFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(JobFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Job.class);
+          }
+        }).instrumentedBy(stats);
+      }
+    }).getInstance(JobFactory.class);
+    
+    Key<JobFactory> key = Key.get(JobFactory.class);
+    assertTrue(stats.recordNanos(key) >= 0);
+    assertTrue(stats.compileNanos(key) > 0);
+    
+    fact.create("a");
+    fact.create("b");
+    try {
+      fact.create(null);
+      fail();
+    } catch (RuntimeException e) {
+      /* Expected */
+    }
+    
+    Method create = JobFactory.class.getMethod("create", String.class);
+    assertEquals(3, stats.calls(key, create));
+    assertEquals(3, stats.builds(key, create));
+    assertEquals(1, stats.failures(key, create));
+    for (Phase phase : Phase.values()) {
+      assertEquals(3, stats.latency(key, create, phase).count());
+    }
+  }
+  
+  @Test
+  public void testBindingsCountedApart() throws NoSuchMethodException {
+    final CompositeStatistics stats = new CompositeStatistics();
+    final CompositeCache cache = new CompositeCache(10);
+    
+    Injector inj = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        AbstractModule job = new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Job.class);
+          }
+        };
+        
+        bind(JobFactory.class).toComposition(job).instrumentedBy(stats);
+        bind(JobFactory.class).annotatedWith(Names.named("memoized"))
+          .toComposition(job).memoizedIn(cache).instrumentedBy(stats);
+      }
+    });
+    
+    Key<JobFactory> plainKey = Key.get(JobFactory.class);
+    Key<JobFactory> memoKey = Key.get(JobFactory.class, Names.named("memoized"));
+    
+    inj.getInstance(plainKey).create("a");
+    JobFactory memo = inj.getInstance(memoKey);
+    memo.create("a");
+    memo.create("a");
+    memo.create("a");
+    
+    Method create = JobFactory.class.getMethod("create", String.class);
+    assertEquals(1, stats.calls(plainKey, create));
+    assertEquals(1, stats.builds(plainKey, create));
+    
+    /* Calls served from the cache count but build nothing */
+    assertEquals(3, stats.calls(memoKey, create));
+    assertEquals(1, stats.builds(memoKey, create));
+    assertEquals(1, stats.latency(memoKey, create, Phase.PROVISION).count());
+  }
+  
+  @Test
+  public void testQueryOfUncalledMethod() throws NoSuchMethodException {
+    CompositeStatistics stats = new CompositeStatistics();
+    Key<JobFactory> key = Key.get(JobFactory.class);
+    Method create = JobFactory.class.getMethod("create", String.class);
+    
+    assertEquals(0, stats.calls(key, create));
+    assertEquals(0, stats.builds(key, create));
+    assertEquals(0, stats.failures(key, create));
+    
+    /* Queries hand out detached histograms */
+    stats.latency(key, create, Phase.SEED).record(100);
+    assertEquals(0, stats.latency(key, create, Phase.SEED).count());
+  }
+  
+  @Test
+  public void testHistogram() {
+    LatencyHistogram hist = new LatencyHistogram();
+    assertEquals(0, hist.percentile(50));
+    
+    for (int i = 0; i < 99; i++) {
+      hist.record(100);
+    }
+    hist.record(5000);
+    
+    assertEquals(100, hist.count());
+    assertEquals(128, hist.percentile(50));
+    assertEquals(128, hist.percentile(99));
+    assertEquals(8192, hist.percentile(100));
+    assertEquals((99 * 100 + 5000)/100, hist.mean());
+  }
+}
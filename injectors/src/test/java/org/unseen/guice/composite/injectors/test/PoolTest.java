@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositePool;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Inject;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class PoolTest {
+  public interface WorkerFactory {
+    Worker create();
+    
+    Badge badge(@Arg String name);
+  }
+  
+  public static class Worker {
+    @Inject Tool tool;
+  }
+  
+  public static class Badge {
+    @Inject @Arg String name;
+    @Inject Worker worker;
+  }
+  
+  public static class Tool {
+  }
+  
+  private static WorkerFactory factory(final CompositePool pool) {
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(WorkerFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Worker.class);
+            bind(Tool.class);
+            bind(Badge.class);
+          }
+        }).pooledIn(pool);
+      }
+    }).getInstance(WorkerFactory.class);
+  }
+  
+  private static void awaitFull(CompositePool pool) throws InterruptedException {
+    for (int i = 0; i < 100 && pool.size() < pool.capacity(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(pool.capacity(), pool.size());
+  }
+  
+  @Test
+  public void testPooled() throws InterruptedException {
+    CompositePool pool = new CompositePool(4, 10, TimeUnit.MILLISECONDS);
+    try {
+      WorkerFactory fact = factory(pool);
+      
+      /* The first call starts the refill */
+      assertEquals(0, pool.size());
+      fact.create();
+      assertEquals(1, pool.exhaustions());
+      awaitFull(pool);
+      
+      Worker a = fact.create();
+      Worker b = fact.create();
+      assertNotSame(a, b);
+      assertNotSame(a.tool, b.tool);
+      assertEquals(2, pool.hits());
+      assertEquals(1, pool.exhaustions());
+      
+      awaitFull(pool);
+      assertTrue(pool.refills() >= 6);
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void testArgumentsNotPooled() throws InterruptedException {
+    CompositePool pool = new CompositePool(2, 10, TimeUnit.MILLISECONDS);
+    try {
+      WorkerFactory fact = factory(pool);
+      
+      assertEquals("a", fact.badge("a").name);
+      awaitFull(pool);
+      assertEquals(0, pool.hits() + pool.exhaustions());
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void testExhausted() throws InterruptedException {
+    CompositePool pool = new CompositePool(1, 3600, TimeUnit.SECONDS);
+    try {
+      WorkerFactory fact = factory(pool);
+      fact.create();
+      awaitFull(pool);
+      
+      fact.create();
+      fact.create();
+      assertEquals(1, pool.hits());
+      assertEquals(2, pool.exhaustions());
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  /** Fails the creation of the injector after the factory is attached */
+  public static class Broken {
+    public Broken() {
+      throw new IllegalStateException();
+    }
+  }
+  
+  @Test
+  public void testFailedInjectorLeavesNoThread() {
+    final CompositePool pool = new CompositePool(2, 10, TimeUnit.MILLISECONDS);
+    try {
+      createInjector(new CompositeModule() {
+        @Override
+        protected void configure() {
+          bind(WorkerFactory.class).toComposition(new AbstractModule() {
+            @Override
+            protected void configure() {
+              bind(Worker.class);
+            }
+          }).pooledIn(pool);
+          
+          bind(Broken.class).asEagerSingleton();
+        }
+      });
+      fail();
+    } catch (CreationException e) {
+      /* Expected */
+    }
+    
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      assertFalse(thread.getName().startsWith("CompositePool("));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.CompositePreparation;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class PreparationTest {
+  public interface OrderFactory {
+    Order create(@Arg String id);
+  }
+  
+  public interface InvoiceFactory {
+    Invoice create(@Arg String id);
+  }
+  
+  public static class Order {
+    @Inject @Arg String id;
+  }
+  
+  public static class Invoice {
+    @Inject @Arg String id;
+    @Inject Customer customer;
+  }
+  
+  public interface Customer {
+  }
+  
+  private static Injector injector(final CompositePreparation prep, final boolean customer) {
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(OrderFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Order.class);
+          }
+        }).preparedBy(prep);
+        
+        bind(InvoiceFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Invoice.class);
+            if (customer) {
+              bind(Customer.class).toInstance(new Customer() {});
+            }
+          }
+        }).preparedBy(prep);
+      }
+    });
+  }
+  
+  @Test
+  public void testPrepared() {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Injector inj = injector(new CompositePreparation(executor), true);
+      
+      assertEquals("o", inj.getInstance(OrderFactory.class).create("o").id);
+      assertEquals("i", inj.getInstance(InvoiceFactory.class).create("i").id);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  @Test
+  public void testErrorsAtCreation() {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      injector(new CompositePreparation(executor), false);
+      fail();
+    } catch (CreationException e) {
+      /* Expected */
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
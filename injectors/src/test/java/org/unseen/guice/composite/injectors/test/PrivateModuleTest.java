@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.Inject;
+import com.google.inject.PrivateModule;
+import com.google.inject.Singleton;
+import com.google.inject.Stage;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class PrivateModuleTest {
+  public interface AccountFactory {
+    Account create(@Arg("owner") String owner);
+  }
+  
+  public interface Account {
+    Ledger ledger();
+    Ledger audit();
+  }
+  
+  public static class AccountImpl implements Account {
+    @Inject Ledger ledger;
+    @Inject Ledger audit;
+    
+    public Ledger ledger() {
+      return ledger;
+    }
+    
+    public Ledger audit() {
+      return audit;
+    }
+  }
+  
+  public interface Ledger {
+    String owner();
+  }
+  
+  public static class LedgerImpl implements Ledger {
+    @Inject @Arg("owner") String owner;
+    
+    public String owner() {
+      return owner;
+    }
+  }
+  
+  @Singleton
+  public static class SingletonLedger extends LedgerImpl {
+  }
+  
+  @Test
+  public void testSingletonInPrivateModule() {
+    check(Stage.DEVELOPMENT, false);
+  }
+  
+  @Test
+  public void testSingletonInPrivateModuleProduction() {
+    check(Stage.PRODUCTION, false);
+  }
+  
+  @Test
+  public void testSingletonClassInPrivateModule() {
+    check(Stage.DEVELOPMENT, true);
+  }
+  
+  @Test
+  public void testSingletonClassInPrivateModuleProduction() {
+    check(Stage.PRODUCTION, true);
+  }
+  
+  private static void check(Stage stage, final boolean singletonClass) {
+    AccountFactory fact = createInjector(stage, new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(AccountFactory.class).toComposition(new PrivateModule() {
+          @Override
+          protected void configure() {
+            bind(Account.class).to(AccountImpl.class);
+            if (singletonClass) {
+              bind(Ledger.class).to(SingletonLedger.class);
+            } else {
+              bind(Ledger.class).to(LedgerImpl.class).in(Singleton.class);
+            }
+            expose(Account.class);
+          }
+        });
+      }
+    }).getInstance(AccountFactory.class);
+    
+    Account a1 = fact.create("alice");
+    Account a2 = fact.create("bob");
+    
+    assertTrue(a1.ledger() == a1.audit());
+    assertTrue(a1.ledger() != a2.ledger());
+    assertEquals("alice", a1.ledger().owner());
+    assertEquals("bob", a2.ledger().owner());
+  }
+}
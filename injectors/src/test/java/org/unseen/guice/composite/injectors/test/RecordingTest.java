@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class RecordingTest {
+  public interface ItemFactory {
+    Item create(@Arg int id);
+  }
+  
+  public static class Item {
+    @Inject @Arg int id;
+  }
+  
+  @Test
+  public void testModulesRunOnce() {
+    final int[] runs = new int[1];
+    
+    ItemFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(ItemFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            runs[0]++;
+            bind(Item.class);
+          }
+        });
+      }
+    }).getInstance(ItemFactory.class);
+    
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, fact.create(i).id);
+    }
+    
+    assertEquals(1, runs[0]);
+  }
+}
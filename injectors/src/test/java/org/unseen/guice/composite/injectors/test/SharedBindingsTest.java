@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static com.google.inject.Scopes.SINGLETON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class SharedBindingsTest {
+  public interface WorkerFactory {
+    Worker create(@Arg String name);
+  }
+  
+  public interface Worker {
+    String name();
+    Helper helper();
+    Deep deep();
+    SessionFactory sessions();
+  }
+  
+  public interface SessionFactory {
+    Session create(@Arg("id") Integer id);
+  }
+  
+  public static class WorkerImpl implements Worker {
+    private final String name;
+    private final Helper helper;
+    private final Deep deep;
+    private final SessionFactory sessions;
+    
+    @Inject
+    public WorkerImpl(@Arg String name, Helper helper, Deep deep, SessionFactory sessions) {
+      this.name = name;
+      this.helper = helper;
+      this.deep = deep;
+      this.sessions = sessions;
+    }
+    
+    public String name() {
+      return name;
+    }
+    
+    public Helper helper() {
+      return helper;
+    }
+    
+    public Deep deep() {
+      return deep;
+    }
+    
+    public SessionFactory sessions() {
+      return sessions;
+    }
+  }
+  
+  /** Does not depend on the factory arguments */
+  public static class Helper {
+  }
+  
+  /** Depends on the factory arguments through a just-in-time binding */
+  public static class Deep {
+    @Inject Middle middle;
+  }
+  
+  public static class Middle {
+    @Inject @Arg String name;
+  }
+  
+  /** Depends on the outer composite only */
+  public static class Session {
+    @Inject Worker worker;
+  }
+  
+  @Test
+  public void testSharedSingletons() {
+    WorkerFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(WorkerFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Worker.class).to(WorkerImpl.class).in(SINGLETON);
+            bind(Helper.class).in(SINGLETON);
+            bind(Deep.class).in(SINGLETON);
+            
+            bind(SessionFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Session.class).in(SINGLETON);
+              }
+            });
+          }
+        }).withSharedSingletons();
+      }
+    }).getInstance(WorkerFactory.class);
+    
+    Worker w1 = fact.create("one");
+    Worker w2 = fact.create("two");
+    
+    /* Hoisted into the shared injector */
+    assertTrue(w1.helper() == w2.helper());
+    
+    /* Reaches an argument and stays per composite */
+    assertTrue(w1.deep() != w2.deep());
+    assertEquals("one", w1.deep().middle.name);
+    assertEquals("two", w2.deep().middle.name);
+    
+    /* Reaches the outer composite and stays per composite */
+    Session s1 = w1.sessions().create(1);
+    Session s2 = w2.sessions().create(1);
+    assertTrue(s1 != s2);
+    assertTrue(s1.worker == w1);
+    assertTrue(s2.worker == w2);
+  }
+  
+  @Test
+  public void testPerCompositeSingletons() {
+    WorkerFactory fact = createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(WorkerFactory.class).toComposition(new CompositeModule() {
+          @Override
+          protected void configure() {
+            bind(Worker.class).to(WorkerImpl.class).in(SINGLETON);
+            bind(Helper.class).in(SINGLETON);
+            bind(Deep.class).in(SINGLETON);
+            
+            bind(SessionFactory.class).toComposition(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(Session.class).in(SINGLETON);
+              }
+            });
+          }
+        });
+      }
+    }).getInstance(WorkerFactory.class);
+    
+    Worker w1 = fact.create("one");
+    Worker w2 = fact.create("two");
+    
+    /* Depends on no argument but is still a singleton of each composite */
+    assertTrue(w1.helper() != w2.helper());
+    assertTrue(w1.helper() == w1.sessions().create(1).worker.helper());
+    
+    assertTrue(w1.deep() != w2.deep());
+    assertEquals("one", w1.deep().middle.name);
+    assertEquals("two", w2.deep().middle.name);
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.injectors.test;
+
+import static com.google.inject.Guice.createInjector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.unseen.guice.composite.injectors.Arg;
+import org.unseen.guice.composite.injectors.FactoryMetadata;
+import org.unseen.guice.composite.injectors.binder.CompositeModule;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class SharedMetadataTest {
+  public interface SessionFactory {
+    Session create(@Arg String user);
+  }
+  
+  @Singleton
+  public static class Session {
+    @Inject @Arg String user;
+  }
+  
+  private static Injector injector() {
+    return createInjector(new CompositeModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toComposition(new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Session.class);
+          }
+        });
+      }
+    });
+  }
+  
+  @Test
+  public void testManyInjectors() {
+    SessionFactory first = injector().getInstance(SessionFactory.class);
+    SessionFactory second = injector().getInstance(SessionFactory.class);
+    
+    Session a = first.create("a");
+    Session b = second.create("b");
+    assertEquals("a", a.user);
+    assertEquals("b", b.user);
+    assertNotSame(a, first.create("a"));
+    
+    assertSame(FactoryMetadata.methods(SessionFactory.class), 
+        FactoryMetadata.methods(SessionFactory.class));
+  }
+}
@@ -16,20 +16,79 @@
 package org.unseen.guice.composite.scopes;
 
 import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provider;
 import com.google.inject.Scope;
+import com.google.inject.internal.Errors;
+import com.google.inject.spi.DefaultBindingScopingVisitor;
 
 /**
+ * Every key bound in the scope gets a dense slot when Guice scopes its
+ * binding. The instances of the scope keep their objects in arrays indexed by
+ * these slots.
+ * <p>
+ * Scopes nest through their factories: the factory of a scope is bound in the
+ * scope it nests in. A factory bound in no dynamic scope starts a root scope.
+ * The nesting is resolved when the injector is created. From then on every
+ * scope knows its depth and a scope instance finds the level that owns a key
+ * by indexing its lineage with the depth of the key's scope.
+ * <p>
+ * A factory of a root scope no longer captures the instance that happens to
+ * be active when it is injected. Its scope is independent even if it is
+ * called from inside another scope. Code that relied on the captured instance
+ * must bind the factory in the scope it should nest in. Products that reach
+ * into a scope their own does not nest in are reported when the injector is
+ * created.
+ * 
  * @author rinsvind@gmail.com (Todor Boev)
  * 
  */
 public class DynamicScope implements Scope {
+  /** Resolves the dynamic scope a factory is bound in */
+  private static final DefaultBindingScopingVisitor<DynamicScope> OUTER = new DefaultBindingScopingVisitor<DynamicScope>() {
+    @Override
+    public DynamicScope visitScope(Scope scope) {
+      return scope instanceof DynamicScope ? (DynamicScope) scope : null;
+    }
+  };
+  
   private final Class<? extends Annotation> tag;
+  /** Carries the active instances of this scope */
+  private final ScopeContext context;
+  /** The key of the factory that creates instances of this scope */
+  private final Key<?> factory;
+  /** The slots of the keys scoped so far */
+  private final Map<Key<?>, Integer> slots;
+  /** The number of slots assigned so far */
+  private volatile int size;
+  /** The scope this one nests in - null for a root scope */
+  private volatile DynamicScope parent;
+  /** The number of scopes this one nests in - negative until resolved */
+  private volatile int depth;
+  /** Guards the resolution against factories nested in their own scope */
+  private boolean resolving;
 
   public DynamicScope(Class<? extends Annotation> tag) {
+    this(tag, null);
+  }
+
+  public DynamicScope(Class<? extends Annotation> tag, Key<?> factory) {
+    this(tag, factory, ThreadScopeContext.DEFAULT);
+  }
+
+  public DynamicScope(Class<? extends Annotation> tag, Key<?> factory, ScopeContext context) {
+    if (context == null) {
+      throw new IllegalArgumentException("The scope context can't be null");
+    }
     this.tag = tag;
+    this.context = context;
+    this.factory = factory;
+    this.slots = new HashMap<Key<?>, Integer>();
+    this.depth = -1;
   }
 
   @Override
@@ -41,14 +100,104 @@ public class DynamicScope implements Scope {
     return tag;
   }
 
-  public <T> Provider<T> scope(final Key<T> key, final Provider<T> unscoped) {
-    /*
-     * TODO Make sure the scope of the current provider is always equal or wider
-     * than the active scope. Wider because a part of the parent scope might be
-     * lazily created on demand by a narrower scope. This will require me to
-     * introduce explicit scope ordering.
-     */
+  /**
+   * @return the context that carries the active instances of this scope.
+   */
+  public ScopeContext context() {
+    return context;
+  }
+
+  /**
+   * @param key
+   * @return the slot of {@code key}, assigned now if the key has none yet.
+   */
+  public synchronized int slot(Key<?> key) {
+    Integer slot = slots.get(key);
+    if (slot == null) {
+      slot = size++;
+      slots.put(key, slot);
+    }
+    return slot;
+  }
+
+  /**
+   * @return the number of slots an instance of this scope needs so far.
+   *         Bindings scoped later, e.g. just in time, add more.
+   */
+  public int size() {
+    return size;
+  }
 
+  /**
+   * @return the scope this one nests in or null if this is a root scope.
+   */
+  public DynamicScope parent() {
+    return parent;
+  }
+
+  /**
+   * @return the number of scopes this one nests in.
+   */
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * @param other
+   * @return true if {@code other} is this scope or nests in it.
+   */
+  public boolean encloses(DynamicScope other) {
+    for (DynamicScope s = other; s != null; s = s.parent) {
+      if (s == this) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Resolves the place of this scope in the nesting hierarchy from the scope
+   * its factory is bound in. Called when the injector is created. Scopes
+   * resolve their parents first so the order of the calls does not matter.
+   * 
+   * @param injector
+   * @param errors collects a factory nested in its own scope or in a scope
+   *        carried by another context.
+   */
+  public synchronized void nest(Injector injector, Errors errors) {
+    if (depth >= 0) {
+      return;
+    }
+
+    if (resolving) {
+      errors.addMessage("%s is nested in itself through the scopes its factories are bound in", this);
+      return;
+    }
+
+    resolving = true;
+    try {
+      DynamicScope outer = factory != null 
+        ? injector.getBinding(factory).acceptScopingVisitor(OUTER) 
+        : null;
+      
+      if (outer == null) {
+        depth = 0;
+      } else if (outer.context != context) {
+        errors.addMessage("%s is nested in %s but the two are carried by different contexts", 
+            this, outer);
+      } else {
+        outer.nest(injector, errors);
+        if (outer.depth >= 0) {
+          parent = outer;
+          depth = outer.depth + 1;
+        }
+      }
+    } finally {
+      resolving = false;
+    }
+  }
+
+  public <T> Provider<T> scope(final Key<T> key, final Provider<T> unscoped) {
     /*
      * This provider must be called in one-shot mode only during recursive
      * creation initiated by a call to a dynamic scope factory. The factory will
@@ -59,9 +208,10 @@ public class DynamicScope implements Scope {
      * provider won't work. Therefore dynamically scoped providers must never be
      * injected.
      */
+    final int slot = slot(key);
     return new Provider<T>() {
       public T get() {
-        return DynamicScopeInstance.active().search(key, unscoped, DynamicScope.this);
+        return DynamicScopeInstance.active(context).search(slot, unscoped, DynamicScope.this);
       }
     };
   }
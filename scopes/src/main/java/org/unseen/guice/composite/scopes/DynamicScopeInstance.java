@@ -18,8 +18,7 @@ package org.unseen.guice.composite.scopes;
 import static java.util.Arrays.asList;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
 import com.google.inject.CreationException;
 import com.google.inject.Key;
@@ -32,21 +31,49 @@ import com.google.inject.spi.Message;
  * scope factory. The cache lives until the creation process is completed and is
  * than thrown away. The cache can survive the factory method call only if the
  * creation process spawns a dynamic scope factory for a narrower scope.
+ * <p>
+ * The cache is an array indexed by the slots the scope assigned to its keys.
+ * It is sized for all slots known when the instance is created and grows if
+ * a key is scoped later.
+ * <p>
+ * Every instance keeps its lineage - the instances it nests in indexed by the
+ * depth of their scopes. The level that owns a key is found in one step.
+ * <p>
+ * The active instance is carried by the {@link ScopeContext} of its scope.
+ * Activations form a stack - every wave restores the instance that was active
+ * before it.
  * 
  * @author rinsvind@gmail.com (Todor Boev)
  * 
  */
 public class DynamicScopeInstance {
-  private static final ThreadLocal<DynamicScopeInstance> ACTIVE = new ThreadLocal<DynamicScopeInstance>();
+  /** Stands for cached null values - an empty slot holds null */
+  private static final Object NULL = new Object();
 
   private final DynamicScope scope;
-  private final DynamicScopeInstance parent;
-  private final Map<Key<?>, Object> cache;
+  /** The instances of the enclosing scopes and this one indexed by depth */
+  private final DynamicScopeInstance[] lineage;
+  /** The cached objects indexed by slot */
+  private Object[] cache;
 
   private DynamicScopeInstance(DynamicScope scope, DynamicScopeInstance parent) {
+    int depth = scope.depth();
+    if (depth < 0) {
+      throw new CreationException(asList(new Message("The nesting of " + scope 
+          + " is not resolved")));
+    }
+    if ((parent != null ? parent.scope : null) != scope.parent()) {
+      throw new CreationException(asList(new Message(scope + " nests in " + scope.parent() 
+          + " but is created in " + parent)));
+    }
+    
     this.scope = scope;
-    this.parent = parent;
-    this.cache = new HashMap<Key<?>, Object>();
+    this.lineage = new DynamicScopeInstance[depth + 1];
+    if (parent != null) {
+      System.arraycopy(parent.lineage, 0, lineage, 0, depth);
+    }
+    this.lineage[depth] = this;
+    this.cache = new Object[scope.size()];
   }
 
   @Override
@@ -65,10 +92,26 @@ public class DynamicScopeInstance {
    * @param val
    */
   public <T> void seed(Key<T> key, T val) {
-    if (cache.containsKey(key)) {
+    int slot = scope.slot(key);
+    if (get(slot) != null) {
       throw new CreationException(Arrays.asList(new Message(key + " already seeded in " + this)));
     }
-    cache.put(key, val);
+    put(slot, val);
+  }
+
+  /**
+   * Pre-loads a slot of the cache. Used by factory methods that resolved the
+   * slots of their parameters up front.
+   * 
+   * @param slot
+   * @param val
+   */
+  public void seed(int slot, Object val) {
+    if (get(slot) != null) {
+      throw new CreationException(Arrays.asList(new Message("Slot " + slot 
+          + " already seeded in " + this)));
+    }
+    put(slot, val);
   }
 
   /**
@@ -76,81 +119,111 @@ public class DynamicScopeInstance {
    * caches it at the appropriate scope level.
    * 
    * @param <T>
-   * @param key
+   * @param slot the slot {@code scope} assigned to the key.
    * @param unscoped
    * @param scope
    * @return the value of the key in the current scope instance. Can return null
    *         if we are searching for an optional scope parameter.
    */
   @SuppressWarnings("unchecked")
-  public <T> T search(Key<T> key, Provider<T> unscoped, DynamicScope scope) {
-    T val = null;
-
-    if (this.scope == scope) {
-      /*
-       * Must check if the cache contains the key because it might be bound to
-       * null. So we can't distinguish a null value from a missing value. The
-       * other way to support null parameters would be to box all cached objects
-       * in a container that can also be empty
-       */
-      if (cache.containsKey(key)) {
-        val = (T) cache.get(key);
-      } else {
-        val = unscoped.get();
-
-        /*
-         * In case of cycles val would be a proxy. This proxy would be created
-         * when the recursion loops into a search() call to this object and
-         * Guice detects we try to create val while already the creation of val
-         * is in progress. At that point val will be cached by the looped
-         * search() call and than returned to us. Here we will cached it again -
-         * no harm done.
-         */
-        cache.put(key, val);
-      }
-    } else if (parent != null) {
-      val = parent.search(key, unscoped, scope);
-    } else {
-      throw new CreationException(asList(new Message("No cache level found for " + key
-          + " scoped as " + scope + " and searched in " + this.scope + " and it's parents")));
+  public <T> T search(int slot, Provider<T> unscoped, DynamicScope scope) {
+    DynamicScopeInstance owner = ancestor(scope);
+    
+    /*
+     * Null values are cached masked so that an empty slot always means the
+     * value is missing.
+     */
+    Object cached = owner.get(slot);
+    if (cached != null) {
+      return cached != NULL ? (T) cached : null;
     }
+    
+    T val = unscoped.get();
 
+    /*
+     * In case of cycles val would be a proxy. This proxy would be created when
+     * the recursion loops into a search() call to this object and Guice
+     * detects we try to create val while already the creation of val is in
+     * progress. At that point val will be cached by the looped search() call
+     * and than returned to us. Here we will cached it again - no harm done.
+     */
+    owner.put(slot, val);
     return val;
   }
 
   /**
-   * Called to setup the creation of a new object graph.
+   * @param scope
+   * @return the instance of {@code scope} this instance nests in or this
+   *         instance itself.
+   */
+  public DynamicScopeInstance ancestor(DynamicScope scope) {
+    int depth = scope.depth();
+    if (depth >= 0 && depth < lineage.length && lineage[depth].scope == scope) {
+      return lineage[depth];
+    }
+    throw new CreationException(asList(new Message("No cache level found for " + scope 
+        + " in " + this.scope + " and it's parents")));
+  }
+
+  private Object get(int slot) {
+    return slot < cache.length ? cache[slot] : null;
+  }
+
+  private void put(int slot, Object val) {
+    if (slot >= cache.length) {
+      Object[] grown = new Object[Math.max(slot + 1, scope.size())];
+      System.arraycopy(cache, 0, grown, 0, cache.length);
+      cache = grown;
+    }
+    cache[slot] = val != null ? val : NULL;
+  }
+
+  /**
+   * Called to setup the creation of a new object graph. The instance can be
+   * seeded before it is activated by {@link #run(DynamicScopeInstance, Callable)}.
    * 
    * @param scope
    * @param parent
    * @return
    */
-  public static DynamicScopeInstance activate(DynamicScope scope, DynamicScopeInstance parent) {
-    if (ACTIVE.get() != null) {
-      throw new CreationException(Arrays.asList(new Message(
-          "A dynamic scope instance is already active in this thread: " + ACTIVE.get())));
-    }
+  public static DynamicScopeInstance create(DynamicScope scope, DynamicScopeInstance parent) {
+    return new DynamicScopeInstance(scope, parent);
+  }
 
-    DynamicScopeInstance ctx = new DynamicScopeInstance(scope, parent);
-    ACTIVE.set(ctx);
-    return ctx;
+  /**
+   * Runs a wave of object creation with {@code instance} active in the
+   * context of its scope. Waves nest:
+   * a factory called while another instance is active, e.g. from a
+   * constructor, runs inline and the outer instance is active again when it
+   * returns or fails.
+   * 
+   * @param <T>
+   * @param instance
+   * @param creation
+   * @return the result of {@code creation}.
+   * @throws Exception whatever {@code creation} throws.
+   */
+  public static <T> T run(DynamicScopeInstance instance, Callable<T> creation) throws Exception {
+    return instance.scope.context().call(instance, creation);
   }
 
   /**
-   * @return
+   * @param context
+   * @return true if an instance is active in {@code context}.
    */
-  public static boolean isActive() {
-    return ACTIVE.get() != null;
+  public static boolean isActive(ScopeContext context) {
+    return context.current() != null;
   }
 
   /**
    * Called during a wave of object creation to cache the new objects or to
    * capture the active context into factories of narrower contexts.
    * 
-   * @return
+   * @param context
+   * @return the instance active in {@code context}.
    */
-  public static DynamicScopeInstance active() {
-    DynamicScopeInstance active = ACTIVE.get();
+  public static DynamicScopeInstance active(ScopeContext context) {
+    DynamicScopeInstance active = context.current();
     if (active == null) {
       throw new CreationException(Arrays.asList(new Message(
           "No dynamic scope instance is active in this thread")));
@@ -159,10 +232,55 @@ public class DynamicScopeInstance {
   }
 
   /**
-   * Called at the end of a wave of object creation to clear the current
-   * context.
+   * Makes a fresh instance active in the default context until
+   * {@link #deactivate()} is called.
+   * 
+   * @param scope
+   * @param parent
+   * @return the active instance.
+   * @deprecated Activations don't nest and only see the default context. Use
+   *             {@link #create(DynamicScope, DynamicScopeInstance)} and
+   *             {@link #run(DynamicScopeInstance, Callable)}.
+   */
+  @Deprecated
+  public static DynamicScopeInstance activate(DynamicScope scope, DynamicScopeInstance parent) {
+    ThreadScopeContext context = ThreadScopeContext.DEFAULT;
+    if (context.current() != null) {
+      throw new CreationException(Arrays.asList(new Message(
+          "A dynamic scope instance is already active in this thread: " + context.current())));
+    }
+    
+    DynamicScopeInstance ctx = create(scope, parent);
+    context.set(ctx);
+    return ctx;
+  }
+
+  /**
+   * @return true if an instance is active in the default context.
+   * @deprecated Use {@link #isActive(ScopeContext)}.
+   */
+  @Deprecated
+  public static boolean isActive() {
+    return isActive(ThreadScopeContext.DEFAULT);
+  }
+
+  /**
+   * @return the instance active in the default context.
+   * @deprecated Use {@link #active(ScopeContext)}.
+   */
+  @Deprecated
+  public static DynamicScopeInstance active() {
+    return active(ThreadScopeContext.DEFAULT);
+  }
+
+  /**
+   * Ends the activation started by
+   * {@link #activate(DynamicScope, DynamicScopeInstance)}.
+   * 
+   * @deprecated Use {@link #run(DynamicScopeInstance, Callable)}.
    */
+  @Deprecated
   public static void deactivate() {
-    ACTIVE.remove();
+    ThreadScopeContext.DEFAULT.set(null);
   }
 }
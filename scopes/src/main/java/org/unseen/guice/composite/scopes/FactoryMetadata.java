@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.google.inject.TypeLiteral;
+
+/**
+ * Process-wide cache of the method suites of factory interfaces. Injectors
+ * built from the same modules share the reflection results and the Guice keys
+ * of their factories rather than compute them again.
+ * <p>
+ * The cache does not keep class loaders alive. Entries are weakly keyed by the
+ * raw factory interface and the suites, which refer back to the interface
+ * through their methods, are held weakly as well. Every suite in use keeps the
+ * suites of its interface cached - once the last one is gone the interface can
+ * be unloaded.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class FactoryMetadata {
+  private static final Map<Class<?>, Reference<Map<List<Object>, Suite>>> SUITES = 
+    new WeakHashMap<Class<?>, Reference<Map<List<Object>, Suite>>>();
+  
+  private FactoryMetadata() {
+  }
+  
+  /**
+   * @param iface the factory interface.
+   * @param tag the annotation of the scope the factory creates.
+   * @return the immutable method suite of {@code iface}.
+   */
+  public static Map<Method, FactoryMethodImpl> methods(TypeLiteral<?> iface, 
+      Class<? extends Annotation> tag) {
+    
+    Class<?> raw = iface.getRawType();
+    List<Object> key = Arrays.<Object>asList(iface, tag);
+    
+    synchronized (SUITES) {
+      Suite suite = suites(raw).get(key);
+      if (suite != null) {
+        return suite;
+      }
+    }
+    
+    /* Build outside the lock - a concurrent duplicate is harmless */
+    Map<Method, FactoryMethodImpl> methods = new HashMap<Method, FactoryMethodImpl>();
+    for (Method method : raw.getMethods()) {
+      methods.put(method, new FactoryMethodImpl(iface, method, tag));
+    }
+    
+    synchronized (SUITES) {
+      Map<List<Object>, Suite> suites = suites(raw);
+      Suite suite = new Suite(methods, suites);
+      suites.put(key, suite);
+      return suite;
+    }
+  }
+  
+  private static Map<List<Object>, Suite> suites(Class<?> raw) {
+    Reference<Map<List<Object>, Suite>> ref = SUITES.get(raw);
+    Map<List<Object>, Suite> suites = ref != null ? ref.get() : null;
+    if (suites == null) {
+      suites = new HashMap<List<Object>, Suite>();
+      SUITES.put(raw, new WeakReference<Map<List<Object>, Suite>>(suites));
+    }
+    return suites;
+  }
+  
+  /**
+   * An immutable method suite. Keeps the suites of the same interface cached.
+   */
+  private static class Suite extends AbstractMap<Method, FactoryMethodImpl> {
+    private final Map<Method, FactoryMethodImpl> methods;
+    /** Held only to keep the cache entry of the interface alive */
+    @SuppressWarnings("unused")
+    private final Map<List<Object>, Suite> siblings;
+    
+    Suite(Map<Method, FactoryMethodImpl> methods, Map<List<Object>, Suite> siblings) {
+      this.methods = Collections.unmodifiableMap(methods);
+      this.siblings = siblings;
+    }
+    
+    @Override
+    public FactoryMethodImpl get(Object method) {
+      return methods.get(method);
+    }
+    
+    @Override
+    public Set<Map.Entry<Method, FactoryMethodImpl>> entrySet() {
+      return methods.entrySet();
+    }
+  }
+}
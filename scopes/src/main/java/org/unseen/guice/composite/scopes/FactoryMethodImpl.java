@@ -22,16 +22,22 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.google.inject.ConfigurationException;
+import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
 import com.google.inject.TypeLiteral;
 import com.google.inject.internal.Errors;
 import com.google.inject.internal.ErrorsException;
 
 /**
- * Implements a single factory method.
+ * Implements a single factory method. The signature is shared by all factories
+ * of an interface. Every factory prepares its own copy - a creation plan that
+ * seeds the scope by slot and creates the product straight from a provider
+ * resolved up front.
  * 
  * @author rinsvind@gmail.com (Todor Boev)
  *
@@ -43,8 +49,14 @@ public class FactoryMethodImpl implements FactoryMethod {
   private final Key<?> result;
   /** The parameters passed into the new dynamic context */
   private final List<Key<?>> params;
+  /** The slots of the arguments in the scope - null until prepared */
+  private final int[] slots;
+  /** Creates the result - null until prepared */
+  private final Provider<?> product;
+  /** Runs the product provider in the activated scope - null until prepared */
+  private final Callable<Object> creation;
   
-  public FactoryMethodImpl(TypeLiteral<?> factory, Method method, DynamicScope scope) {
+  public FactoryMethodImpl(TypeLiteral<?> factory, Method method, Class<? extends Annotation> tag) {
     this.method = method;
     
     /*
@@ -60,7 +72,6 @@ public class FactoryMethodImpl implements FactoryMethod {
       List<TypeLiteral<?>> paramTypes = factory.getParameterTypes(method);
       Annotation[][] paramAnnotations = method.getParameterAnnotations();
       Key<?>[] paramArray = new Key<?>[paramTypes.size()];
-      Class<? extends Annotation> tag = scope.annotation();
       
       for (int p = 0; p < paramArray.length; p++) {
         paramArray[p] = getParamKey(paramTypes.get(p), tag, method, paramAnnotations[p], errors);  
@@ -70,6 +81,41 @@ public class FactoryMethodImpl implements FactoryMethod {
     } catch (ErrorsException e) {
       throw new ConfigurationException(errors.getMessages());
     }
+    
+    this.slots = null;
+    this.product = null;
+    this.creation = null;
+  }
+  
+  private FactoryMethodImpl(FactoryMethodImpl signature, int[] slots, Provider<?> product) {
+    this.method = signature.method;
+    this.result = signature.result;
+    this.params = signature.params;
+    this.slots = slots;
+    this.product = product;
+    this.creation = new Callable<Object>() {
+      public Object call() {
+        return FactoryMethodImpl.this.product.get();
+      }
+    };
+  }
+  
+  /**
+   * Compiles the creation plan of this method for one factory. The signature
+   * itself is shared by all factories of the interface and is left untouched.
+   * 
+   * @param scope the scope the factory creates.
+   * @param injector the injector that creates the product.
+   * @return a copy of this method that seeds every argument by slot and
+   *         creates the product without a binding lookup.
+   */
+  public FactoryMethodImpl prepare(DynamicScope scope, Injector injector) {
+    int[] slots = new int[params.size()];
+    for (int p = 0; p < slots.length; p++) {
+      slots[p] = scope.slot(params.get(p));
+    }
+    
+    return new FactoryMethodImpl(this, slots, injector.getProvider(result));
   }
 
   public Key<?> returnType() {
@@ -80,21 +126,21 @@ public class FactoryMethodImpl implements FactoryMethod {
     return params;
   }
 
-  @SuppressWarnings("unchecked")
   public Object invoke(Object proxy, FactoryInstance instance, Object[] args) throws Throwable {
-    DynamicScopeInstance active = DynamicScopeInstance.activate(instance.scope(), instance.scopeInstance());
+    if (creation == null) {
+      throw new IllegalStateException(method + " is called before it is prepared");
+    }
+    
+    DynamicScopeInstance created = DynamicScopeInstance.create(instance.scope(), instance.scopeInstance());
     try {
-      int p = 0;
-      for (Key<?> paramKey : params) {
-        active.seed((Key) paramKey, args[p++]);
-      }
-      
       /*
        * If nested scope factories need to be created to satisfy this
-       * instantiation they will capture the scope instance we have activated
-       * just now.
+       * instantiation they will capture the scope instance we activate.
        */
-      return instance.injector().getInstance(result);
+      for (int p = 0; p < slots.length; p++) {
+        created.seed(slots[p], args[p]);
+      }
+      return DynamicScopeInstance.run(created, creation);
     } catch (ProvisionException e) {
       /* If this is an exception declared by the factory method, throw it as-is */
       if (e.getErrorMessages().size() == 1) {
@@ -104,8 +150,6 @@ public class FactoryMethodImpl implements FactoryMethod {
         }
       }
       throw e;
-    } finally {
-      DynamicScopeInstance.deactivate();
     }
   }
 
@@ -22,8 +22,10 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.inject.Binding;
 import com.google.inject.ConfigurationException;
@@ -36,7 +38,14 @@ import com.google.inject.Scope;
 import com.google.inject.TypeLiteral;
 import com.google.inject.internal.Errors;
 import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.ExposedBinding;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.spi.LinkedKeyBinding;
 import com.google.inject.spi.Message;
+import com.google.inject.spi.ProviderKeyBinding;
 
 /**
  * Provider used to create new instances of scope factories. These instances are
@@ -136,15 +145,112 @@ public class FactoryProvider<F> implements Provider<F> {
     }
   };
 
+  /**
+   * Walks the dependencies of the products of a factory and checks that every
+   * dynamically scoped object they reach lives in the created scope or in a
+   * scope it nests in. Unscoped objects are created in the scope of whoever
+   * requires them so their dependencies are walked as well.
+   */
+  private static class NestingChecker {
+    /** Marks bindings scoped in something other than a dynamic scope */
+    private static final DynamicScope OTHER = new DynamicScope(null);
+    
+    private static final DefaultBindingScopingVisitor<DynamicScope> SCOPE = new DefaultBindingScopingVisitor<DynamicScope>() {
+      @Override
+      protected DynamicScope visitOther() {
+        return OTHER;
+      }
+      
+      @Override
+      public DynamicScope visitScope(Scope scope) {
+        return scope instanceof DynamicScope ? (DynamicScope) scope : OTHER;
+      }
+      
+      @Override
+      public DynamicScope visitNoScoping() {
+        return null;
+      }
+    };
+    
+    private final DynamicScope created;
+    private final Errors errors;
+    private final Set<Binding<?>> visited;
+    
+    public NestingChecker(DynamicScope created, Errors errors) {
+      this.created = created;
+      this.errors = errors;
+      this.visited = new HashSet<Binding<?>>();
+    }
+    
+    public void check(Injector injector, Key<?> key) {
+      Binding<?> binding;
+      try {
+        binding = injector.getBinding(key);
+      } catch (ConfigurationException e) {
+        /* Missing bindings are reported by Guice */
+        return;
+      }
+      
+      if (!visited.add(binding)) {
+        return;
+      }
+      
+      DynamicScope scope = binding.acceptScopingVisitor(SCOPE);
+      if (scope == OTHER) {
+        return;
+      }
+      
+      if (scope != null && scope != created) {
+        scope.nest(injector, errors);
+        if (!scope.encloses(created)) {
+          errors.withSource(binding.getSource()).addMessage(
+              "%s is bound in %s which %s does not nest in", key, scope, created);
+        }
+        /* The outer scope checks its own objects */
+        return;
+      }
+      
+      if (binding instanceof ExposedBinding) {
+        check(((ExposedBinding<?>) binding).getPrivateElements().getInjector(), key);
+        return;
+      }
+      
+      Key<?> target = binding.acceptTargetVisitor(new DefaultBindingTargetVisitor<Object, Key<?>>() {
+        @Override
+        public Key<?> visit(LinkedKeyBinding<?> linked) {
+          return linked.getLinkedKey();
+        }
+        
+        @Override
+        public Key<?> visit(ProviderKeyBinding<?> provided) {
+          return provided.getProviderKey();
+        }
+      });
+      if (target != null) {
+        check(injector, target);
+      }
+      
+      if (binding instanceof HasDependencies) {
+        for (Dependency<?> dep : ((HasDependencies) binding).getDependencies()) {
+          check(injector, dep.getKey());
+        }
+      }
+    }
+  }
+  
   /** The interface of the factories we create */
   private final TypeLiteral<F> iface;
-  /** The method suite of the factories we create */
-  private final Map<Method, FactoryMethod> methods;
+  /** The factory methods of the interface - shared with other providers */
+  private final Map<Method, FactoryMethodImpl> methods;
+  /** The method suite of the factories we create - built at injector-creation time */
+  private Map<Method, FactoryMethod> suite;
 
   /** Part of the state loaded into every created factory */
   private final DynamicScope scope;
   /** Part of the state loaded into every created factory - injected later */
   private Injector injector;
+  /** The only factory of a root scope - shared by all its consumers */
+  private F shared;
 
   public FactoryProvider(TypeLiteral<F> iface, DynamicScope scope) {
     if (!iface.getRawType().isInterface()) {
@@ -155,19 +261,13 @@ public class FactoryProvider<F> implements Provider<F> {
     this.iface = iface;
     this.scope = scope;
 
-    this.methods = new HashMap<Method, FactoryMethod>();
-
-    for (Class<?> cl = iface.getRawType(); cl != null; cl = cl.getSuperclass()) {
-      for (Method method : cl.getMethods()) {
-        methods.put(method, new FactoryMethodImpl(iface, method, scope));
-      }
-    }
+    this.methods = FactoryMetadata.methods(iface, scope.annotation());
   }
 
   /**
    * @return
    */
-  public Map<Method, FactoryMethod> methodSuite() {
+  public Map<Method, ? extends FactoryMethod> methodSuite() {
     return methods;
   }
 
@@ -184,7 +284,7 @@ public class FactoryProvider<F> implements Provider<F> {
      */
     Errors errors = new Errors();
     Binding<?> binding = null;
-    for (Map.Entry<Method, FactoryMethod> ent : methods.entrySet()) {
+    for (Map.Entry<Method, FactoryMethodImpl> ent : methods.entrySet()) {
       try {
         binding = injector.getBinding(ent.getValue().returnType());
 
@@ -206,34 +306,68 @@ public class FactoryProvider<F> implements Provider<F> {
     errors.throwConfigurationExceptionIfErrorsExist();
 
     /*
-     * Add the Object methods to the suite after the validation so that we avoid
-     * their processing.
+     * Place our scope in the nesting hierarchy and reject products that reach
+     * into narrower or unrelated scopes now rather than on the first call.
+     */
+    scope.nest(injector, errors);
+    errors.throwConfigurationExceptionIfErrorsExist();
+    
+    NestingChecker nesting = new NestingChecker(scope, errors);
+    for (FactoryMethodImpl method : methods.values()) {
+      nesting.check(injector, method.returnType());
+    }
+    errors.throwConfigurationExceptionIfErrorsExist();
+
+    /*
+     * Compile the creation plans: resolve the product providers and the slots
+     * of the parameters. Add the Object methods to the suite after the
+     * validation so that we avoid their processing.
      */
+    suite = new HashMap<Method, FactoryMethod>();
+    for (Map.Entry<Method, FactoryMethodImpl> ent : methods.entrySet()) {
+      suite.put(ent.getKey(), ent.getValue().prepare(scope, injector));
+    }
     try {
-      methods.put(Object.class.getMethod("equals", Object.class), EQUALS);
-      methods.put(Object.class.getMethod("toString"), TO_STRING);
-      methods.put(Object.class.getMethod("hashCode"), HASH_CODE);
+      suite.put(Object.class.getMethod("equals", Object.class), EQUALS);
+      suite.put(Object.class.getMethod("toString"), TO_STRING);
+      suite.put(Object.class.getMethod("hashCode"), HASH_CODE);
     } catch (NoSuchMethodException e) {
       throw new RuntimeException("Unexpected", e);
     }
+    
+    /*
+     * A root scope captures no scope instance so all its factories are equal.
+     * The factories of a nested scope are bound in the scope they nest in and
+     * are interned by its instances - one per instance and no longer lived.
+     */
+    if (scope.parent() == null) {
+      shared = create(null);
+    }
   }
 
   /**
    * @see com.google.inject.Provider#get()
    */
   public F get() {
+    DynamicScope outer = scope.parent();
+    if (outer == null) {
+      return shared;
+    }
+    
     /*
-     * Capture the current scope if any - this is the last part of the instance
-     * state
+     * Capture the instance of the scope we nest in - this is the last part of
+     * the instance state
      */
-    DynamicScopeInstance active = DynamicScopeInstance.isActive() ? DynamicScopeInstance.active()
-        : null;
+    return create(DynamicScopeInstance.active(outer.context()).ancestor(outer));
+  }
 
-    /*
-     * Return a factory that will continue the creation starting from the
-     * dynamic scope instance that is active right now.
-     */
-    FactoryInstance factory = new FactoryInstance(scope, active, injector, methods);
+  /**
+   * @param context
+   * @return a factory that will continue the creation starting from
+   *         {@code context}.
+   */
+  private F create(DynamicScopeInstance context) {
+    FactoryInstance factory = new FactoryInstance(scope, context, injector, suite);
 
     @SuppressWarnings("unchecked")
     Class<F> type = (Class<F>) iface.getRawType();
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Carries the active dynamic scope instance from a factory method to the
+ * scoped providers Guice calls while it creates the product. Every
+ * {@link DynamicScope} has one and the scopes nested in it share it. The
+ * default is {@link ThreadScopeContext#DEFAULT}. A module picks another one
+ * for the scopes it binds through
+ * {@code DynamicScopesModule(ScopeContext)}.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ * 
+ */
+public interface ScopeContext {
+  /**
+   * @return the instance active in the calling thread or null if none is.
+   */
+  DynamicScopeInstance current();
+
+  /**
+   * Runs {@code creation} with {@code instance} active and makes the
+   * previously active instance current again when it completes.
+   * 
+   * @param <T>
+   * @param instance
+   * @param creation
+   * @return the result of {@code creation}.
+   * @throws Exception whatever {@code creation} throws.
+   */
+  <T> T call(DynamicScopeInstance instance, Callable<T> creation) throws Exception;
+}
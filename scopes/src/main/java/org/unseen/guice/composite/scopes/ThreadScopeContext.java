@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The default {@link ScopeContext}. Every thread gets one cell that is written
+ * and restored around factory calls rather than a map entry set and removed
+ * every time. The cell stays with the thread after its calls return and goes
+ * away with the thread.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ * 
+ */
+public class ThreadScopeContext implements ScopeContext {
+  /** Carries every scope bound without an explicit context */
+  public static final ThreadScopeContext DEFAULT = new ThreadScopeContext();
+  
+  private final ThreadLocal<DynamicScopeInstance[]> cells = new ThreadLocal<DynamicScopeInstance[]>() {
+    @Override
+    protected DynamicScopeInstance[] initialValue() {
+      return new DynamicScopeInstance[1];
+    }
+  };
+
+  public DynamicScopeInstance current() {
+    return cells.get()[0];
+  }
+
+  public <T> T call(DynamicScopeInstance instance, Callable<T> creation) throws Exception {
+    DynamicScopeInstance[] cell = cells.get();
+    DynamicScopeInstance outer = cell[0];
+    cell[0] = instance;
+    try {
+      return creation.call();
+    } finally {
+      cell[0] = outer;
+    }
+  }
+  
+  /**
+   * Backs the deprecated activation statics of {@link DynamicScopeInstance}.
+   */
+  void set(DynamicScopeInstance instance) {
+    cells.get()[0] = instance;
+  }
+}
@@ -15,6 +15,9 @@
  */
 package org.unseen.guice.composite.scopes.binder;
 
+import org.unseen.guice.composite.scopes.ScopeContext;
+import org.unseen.guice.composite.scopes.ThreadScopeContext;
+
 import com.google.inject.Binder;
 import com.google.inject.Key;
 import com.google.inject.TypeLiteral;
@@ -30,14 +33,43 @@ public class DynamicScopes {
   }
   
   public static <T> DynamicScopesAnnotatedBindingBuilder<T> bind(Binder binder, Class<T> key) {
-    return new DynamicScopesAnnotatedBindingBuilderImpl<T>(Key.get(key), binder.bind(key), binder);
+    return bind(binder, ThreadScopeContext.DEFAULT, key);
   }
 
   public static <T> DynamicScopesAnnotatedBindingBuilder<T> bind(Binder binder, TypeLiteral<T> key) {
-    return new DynamicScopesAnnotatedBindingBuilderImpl<T>(Key.get(key), binder.bind(key), binder);
+    return bind(binder, ThreadScopeContext.DEFAULT, key);
   }
 
   public static <T> DynamicScopesLinkedBindingBuilder<T> bind(Binder binder, Key<T> key) {
-    return new DynamicScopesLinkedBindingBuilderImpl<T>(key, binder.bind(key), binder);
+    return bind(binder, ThreadScopeContext.DEFAULT, key);
+  }
+  
+  /**
+   * Like {@link #bind(Binder, Class)} but the scopes created by the builder
+   * are carried by {@code context}.
+   */
+  public static <T> DynamicScopesAnnotatedBindingBuilder<T> bind(Binder binder,
+      ScopeContext context, Class<T> key) {
+    return new DynamicScopesAnnotatedBindingBuilderImpl<T>(Key.get(key), binder.bind(key), binder,
+        context);
+  }
+
+  /**
+   * Like {@link #bind(Binder, TypeLiteral)} but the scopes created by the
+   * builder are carried by {@code context}.
+   */
+  public static <T> DynamicScopesAnnotatedBindingBuilder<T> bind(Binder binder,
+      ScopeContext context, TypeLiteral<T> key) {
+    return new DynamicScopesAnnotatedBindingBuilderImpl<T>(Key.get(key), binder.bind(key), binder,
+        context);
+  }
+
+  /**
+   * Like {@link #bind(Binder, Key)} but the scopes created by the builder are
+   * carried by {@code context}.
+   */
+  public static <T> DynamicScopesLinkedBindingBuilder<T> bind(Binder binder,
+      ScopeContext context, Key<T> key) {
+    return new DynamicScopesLinkedBindingBuilderImpl<T>(key, binder.bind(key), binder, context);
   }
 }
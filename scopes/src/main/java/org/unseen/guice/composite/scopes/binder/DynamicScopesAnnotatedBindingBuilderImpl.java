@@ -17,6 +17,9 @@ package org.unseen.guice.composite.scopes.binder;
 
 import java.lang.annotation.Annotation;
 
+import org.unseen.guice.composite.scopes.ScopeContext;
+import org.unseen.guice.composite.scopes.ThreadScopeContext;
+
 import com.google.inject.Binder;
 import com.google.inject.Key;
 import com.google.inject.binder.AnnotatedBindingBuilder;
@@ -29,20 +32,35 @@ import com.google.inject.binder.AnnotatedBindingBuilder;
 public class DynamicScopesAnnotatedBindingBuilderImpl<T> extends DynamicScopesLinkedBindingBuilderImpl<T>
     implements DynamicScopesAnnotatedBindingBuilder<T> {
 
+  private final Key<T> key;
   private final AnnotatedBindingBuilder<T> wrapped;
+  private final Binder binder;
+  private final ScopeContext context;
   
   public DynamicScopesAnnotatedBindingBuilderImpl(Key<T> key, AnnotatedBindingBuilder<T> wrapped, Binder binder) {
-    super(key, wrapped, binder);
+    this(key, wrapped, binder, ThreadScopeContext.DEFAULT);
+  }
+  
+  public DynamicScopesAnnotatedBindingBuilderImpl(Key<T> key, AnnotatedBindingBuilder<T> wrapped, Binder binder,
+      ScopeContext context) {
+    super(key, wrapped, binder, context);
+    this.key = key;
     this.wrapped = wrapped;
+    this.binder = binder;
+    this.context = context;
   }
   
   public DynamicScopesLinkedBindingBuilder<T> annotatedWith(Class<? extends Annotation> annotationType) {
-    wrapped.annotatedWith(annotationType);
-    return this;
+    /*
+     * The scopes created further down the DSL resolve their nesting through the
+     * binding of their factory so the key must carry the annotation.
+     */
+    return new DynamicScopesLinkedBindingBuilderImpl<T>(Key.get(key.getTypeLiteral(), annotationType), 
+        wrapped.annotatedWith(annotationType), binder, context);
   }
 
   public DynamicScopesLinkedBindingBuilder<T> annotatedWith(Annotation annotation) {
-    wrapped.annotatedWith(annotation);
-    return this;
+    return new DynamicScopesLinkedBindingBuilderImpl<T>(Key.get(key.getTypeLiteral(), annotation), 
+        wrapped.annotatedWith(annotation), binder, context);
   }
 }
@@ -28,5 +28,5 @@ import com.google.inject.binder.ScopedBindingBuilder;
 public interface DynamicScopesLinkedBindingBuilder<T> extends LinkedBindingBuilder<T> {
   ScopedBindingBuilder toScope(Class<? extends Annotation> tag);
   
-  void toClassScope(Class<?> member);
+  ScopedBindingBuilder toClassScope(Class<?> member);
 }
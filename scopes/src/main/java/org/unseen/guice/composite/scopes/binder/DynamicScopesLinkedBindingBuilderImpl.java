@@ -8,6 +8,8 @@ import org.unseen.guice.composite.scopes.AnonymousScope;
 import org.unseen.guice.composite.scopes.DynamicScope;
 import org.unseen.guice.composite.scopes.FactoryMethod;
 import org.unseen.guice.composite.scopes.FactoryProvider;
+import org.unseen.guice.composite.scopes.ScopeContext;
+import org.unseen.guice.composite.scopes.ThreadScopeContext;
 
 import com.google.inject.Binder;
 import com.google.inject.Key;
@@ -28,11 +30,19 @@ public class DynamicScopesLinkedBindingBuilderImpl<T> implements DynamicScopesLi
   private final Key<T> key;
   private final LinkedBindingBuilder<T> wrapped;
   private final Binder binder;
+  /** Carries the scopes created by this builder */
+  private final ScopeContext context;
   
   public DynamicScopesLinkedBindingBuilderImpl(Key<T> key, LinkedBindingBuilder<T> wrapped, Binder binder) {
+    this(key, wrapped, binder, ThreadScopeContext.DEFAULT);
+  }
+  
+  public DynamicScopesLinkedBindingBuilderImpl(Key<T> key, LinkedBindingBuilder<T> wrapped, Binder binder,
+      ScopeContext context) {
     this.key = key;
     this.wrapped = wrapped;
     this.binder = binder;
+    this.context = context;
   }
   
   @SuppressWarnings("unchecked")
@@ -42,7 +52,7 @@ public class DynamicScopesLinkedBindingBuilderImpl<T> implements DynamicScopesLi
     }
     
     /* Create a scope and a factory for that scope */
-    DynamicScope scope = new DynamicScope(tag);
+    DynamicScope scope = new DynamicScope(tag, key, context);
     FactoryProvider<T> factory = new FactoryProvider<T>(key.getTypeLiteral(), scope);
     
     /* Bind the scope */
@@ -68,7 +78,7 @@ public class DynamicScopesLinkedBindingBuilderImpl<T> implements DynamicScopesLi
   }
   
   @SuppressWarnings("unchecked")
-  public void toClassScope(Class<?> impl) {
+  public ScopedBindingBuilder toClassScope(Class<?> impl) {
     /* We want to hide the parameter bindings in a private space */
     PrivateBinder privBinder = binder.newPrivateBinder();
     
@@ -76,7 +86,7 @@ public class DynamicScopesLinkedBindingBuilderImpl<T> implements DynamicScopesLi
      * Create a scope and a factory for that scope. This scope has no associated
      * annotation.
      */
-    DynamicScope scope = new DynamicScope(AnonymousScope.class);
+    DynamicScope scope = new DynamicScope(AnonymousScope.class, key, context);
     FactoryProvider<T> factory = new FactoryProvider<T>(key.getTypeLiteral(), scope);
     
     /* Merge all parameters and return values into two unique sets */
@@ -103,8 +113,11 @@ public class DynamicScopesLinkedBindingBuilderImpl<T> implements DynamicScopesLi
       privBinder.bind(paramKey).toProvider(Providers.of(null)).in(scope);
     }
     
-    /* Finally bind the factory itself and continue the DSL */
-    wrapped.toProvider(factory);
+    /*
+     * Finally bind the factory itself and continue the DSL. Binding the factory
+     * in another dynamic scope nests the class scope in it.
+     */
+    return wrapped.toProvider(factory);
   }
   
   public ScopedBindingBuilder to(Class<? extends T> implementation) {
@@ -20,6 +20,9 @@ import java.lang.reflect.Method;
 
 import org.aopalliance.intercept.MethodInterceptor;
 
+import org.unseen.guice.composite.scopes.ScopeContext;
+import org.unseen.guice.composite.scopes.ThreadScopeContext;
+
 import com.google.inject.Binder;
 import com.google.inject.Key;
 import com.google.inject.Module;
@@ -33,14 +36,28 @@ import com.google.inject.spi.Message;
 import com.google.inject.spi.TypeConverter;
 
 /**
- * A Guice module that includes the dynamic scopes DSL extensions.
+ * A Guice module that includes the dynamic scopes DSL extensions. The scopes
+ * bound by the module are carried by the {@link ScopeContext} it is created
+ * with. Scopes carried by different contexts can't nest in each other.
  * 
  * @author rinsvind@gmail.com (Todor Boev)
  *
  */
 public abstract class DynamicScopesModule implements Module {
+  private final ScopeContext context;
   private Binder binder;
 
+  protected DynamicScopesModule() {
+    this(ThreadScopeContext.DEFAULT);
+  }
+  
+  protected DynamicScopesModule(ScopeContext context) {
+    if (context == null) {
+      throw new IllegalArgumentException("The scope context can't be null");
+    }
+    this.context = context;
+  }
+
   public final synchronized void configure(Binder builder) {
     if (this.binder != null) {
       throw new IllegalStateException("Re-entry is not allowed.");
@@ -61,15 +78,15 @@ public abstract class DynamicScopesModule implements Module {
   }
 
   protected <T> DynamicScopesLinkedBindingBuilder<T> bind(Key<T> key) {
-    return DynamicScopes.bind(binder, key);
+    return DynamicScopes.bind(binder, context, key);
   }
 
   protected <T> DynamicScopesAnnotatedBindingBuilder<T> bind(TypeLiteral<T> typeLiteral) {
-    return DynamicScopes.bind(binder, typeLiteral);
+    return DynamicScopes.bind(binder, context, typeLiteral);
   }
 
   protected <T> DynamicScopesAnnotatedBindingBuilder<T> bind(Class<T> clazz) {
-    return DynamicScopes.bind(binder, clazz);
+    return DynamicScopes.bind(binder, context, clazz);
   }
   
   protected void bindScope(Class<? extends Annotation> scopeAnnotation, Scope scope) {
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.bench;
+
+import static com.google.inject.Guice.createInjector;
+import static com.google.inject.name.Names.named;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.DynamicScopeInstance;
+import org.unseen.guice.composite.scopes.FactoryInstance;
+import org.unseen.guice.composite.scopes.FactoryMetadata;
+import org.unseen.guice.composite.scopes.FactoryMethod;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.ScopeAnnotation;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+
+/**
+ * Compares factory calls that run the creation plans compiled when the
+ * injector is created with calls that seed by key and look the product up in
+ * the injector, as factories did before the plans. The baseline is built here
+ * from the signatures of the factory methods. Uses the graph shapes of
+ * ClassScopeTest and NestingTest.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class CreationPlanBenchmark {
+  private static final int CALLS = 200000;
+  private static final int ROUNDS = 5;
+  
+  public enum Color { RED, BLUE }
+  
+  public interface CarFactory {
+    Car create(Color color);
+  }
+  
+  public interface Car {
+  }
+  
+  public static class Engine {
+    @Inject @Named("horsePower") int horsePower;
+  }
+  
+  public static class Mustang implements Car {
+    @Inject @Arg Color color;
+    @Inject @Named("engineSize") double engineSize;
+    @Inject Engine engine;
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface ServerScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface ConnectionScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface RequestScoped {
+  }
+  
+  public interface ServerFactory {
+    Server create();
+  }
+  
+  public interface ConnectionFactory {
+    Connection create(String peer);
+  }
+  
+  public interface RequestFactory {
+    Request create(String header);
+  }
+  
+  public static class Server {
+    @Inject ConnectionFactory connections;
+  }
+  
+  public static class Connection {
+    @Inject @Arg(ConnectionScoped.class) String peer;
+    @Inject Server server;
+    @Inject RequestFactory requests;
+  }
+  
+  public static class Request {
+    @Inject @Arg(RequestScoped.class) String header;
+    @Inject Connection conn;
+    @Inject Response resp;
+  }
+  
+  public static class Response {
+    @Inject Connection conn;
+    @Inject Request req;
+  }
+  
+  public static void main(String[] args) {
+    CarFactory cars = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(double.class).annotatedWith(named("engineSize")).toInstance(5.0d);
+        bind(int.class).annotatedWith(named("horsePower")).toInstance(250);
+        bind(CarFactory.class).toClassScope(Mustang.class);
+      }
+    }).getInstance(CarFactory.class);
+    CarFactory unplannedCars = unplanned(cars, CarFactory.class);
+    
+    Server server = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(ServerFactory.class).toScope(ServerScoped.class);
+        bind(Server.class).in(ServerScoped.class);
+        bind(ConnectionFactory.class).toScope(ConnectionScoped.class).in(ServerScoped.class);
+        bind(Connection.class).in(ConnectionScoped.class);
+        bind(RequestFactory.class).toScope(RequestScoped.class).in(ConnectionScoped.class);
+        bind(Request.class).in(RequestScoped.class);
+        bind(Response.class).in(RequestScoped.class);
+      }
+    }).getInstance(ServerFactory.class).create();
+    RequestFactory requests = server.connections.create("peer").requests;
+    RequestFactory unplannedRequests = unplanned(requests, RequestFactory.class);
+    
+    System.out.println("round\tclass scope ns\tunplanned ns\tnested request ns\tunplanned ns");
+    for (int r = 0; r < ROUNDS; r++) {
+      System.out.println(r + "\t" + cars(cars) + "\t" + cars(unplannedCars) + "\t" 
+          + requests(requests) + "\t" + requests(unplannedRequests));
+    }
+  }
+  
+  private static long cars(CarFactory fact) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      fact.create(Color.RED);
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+  
+  private static long requests(RequestFactory fact) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      fact.create("GET");
+    }
+    return (System.nanoTime() - start)/CALLS;
+  }
+  
+  /**
+   * @return a factory equivalent to {@code planned} that seeds by key and looks
+   *         the product up in the injector on every call.
+   */
+  private static <F> F unplanned(F planned, Class<F> type) {
+    FactoryInstance instance = (FactoryInstance) Proxy.getInvocationHandler(planned);
+    
+    Map<Method, FactoryMethod> methods = new HashMap<Method, FactoryMethod>();
+    for (Map.Entry<Method, ? extends FactoryMethod> ent : FactoryMetadata.methods(
+        TypeLiteral.get(type), instance.scope().annotation()).entrySet()) {
+      methods.put(ent.getKey(), new ByKey(ent.getValue()));
+    }
+    
+    FactoryInstance unplanned = new FactoryInstance(instance.scope(), instance.scopeInstance(),
+        instance.injector(), methods);
+    
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, unplanned));
+  }
+  
+  /**
+   * Creates the product of a factory method without a creation plan.
+   */
+  private static class ByKey implements FactoryMethod {
+    private final FactoryMethod signature;
+    
+    ByKey(FactoryMethod signature) {
+      this.signature = signature;
+    }
+    
+    public List<Key<?>> parameterTypes() {
+      return signature.parameterTypes();
+    }
+    
+    public Key<?> returnType() {
+      return signature.returnType();
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, final FactoryInstance instance, Object[] args) 
+        throws Throwable {
+      
+      DynamicScopeInstance created = DynamicScopeInstance.create(instance.scope(), 
+          instance.scopeInstance());
+      
+      int p = 0;
+      for (Key<?> param : signature.parameterTypes()) {
+        created.seed((Key) param, args[p++]);
+      }
+      return DynamicScopeInstance.run(created, new Callable<Object>() {
+        public Object call() {
+          return instance.injector().getInstance(signature.returnType());
+        }
+      });
+    }
+  }
+}
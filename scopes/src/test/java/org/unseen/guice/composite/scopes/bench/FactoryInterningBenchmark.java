@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.bench;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Inject;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * Measures the heap retained per object graph whose objects inject the same
+ * root factories many times.
+ * <p>
+ * Not a unit test - run the main method with the test classpath. Use a heap
+ * large enough to hold all graphs, e.g. -Xmx1g.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class FactoryInterningBenchmark {
+  private static final int GRAPHS = 50000;
+  private static final int ROUNDS = 3;
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface DashboardScoped {
+  }
+  
+  public interface DashboardFactory {
+    Dashboard create(String user);
+  }
+  
+  public interface ChartFactory {
+    Chart create(String series);
+  }
+  
+  public static class Chart {
+    @Inject @Arg String series;
+  }
+  
+  /** Every widget can draw charts and open nested dashboards */
+  public static class Widget {
+    @Inject ChartFactory charts;
+    @Inject DashboardFactory dashboards;
+  }
+  
+  public static class Dashboard {
+    @Inject @Arg(DashboardScoped.class) String user;
+    @Inject Widget w0;
+    @Inject Widget w1;
+    @Inject Widget w2;
+    @Inject Widget w3;
+    @Inject Widget w4;
+    @Inject Widget w5;
+    @Inject Widget w6;
+    @Inject Widget w7;
+  }
+  
+  public static void main(String[] args) {
+    DashboardFactory factory = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(DashboardFactory.class).toScope(DashboardScoped.class);
+        bind(Dashboard.class).in(DashboardScoped.class);
+        bind(ChartFactory.class).toClassScope(Chart.class);
+      }
+    }).getInstance(DashboardFactory.class);
+    
+    System.out.println("round\tbytes/graph");
+    for (int r = 0; r < ROUNDS; r++) {
+      System.out.println(r + "\t" + retained(factory));
+    }
+  }
+  
+  private static long retained(DashboardFactory factory) {
+    Object[] held = new Object[GRAPHS];
+    long before = usedHeap();
+    for (int i = 0; i < GRAPHS; i++) {
+      held[i] = factory.create("u");
+    }
+    long after = usedHeap();
+    
+    /* Keep the graphs reachable until measured */
+    if (held[GRAPHS - 1] == null) {
+      throw new AssertionError();
+    }
+    return (after - before)/GRAPHS;
+  }
+  
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.bench;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.DynamicScopeInstance;
+import org.unseen.guice.composite.scopes.ScopeContext;
+import org.unseen.guice.composite.scopes.ThreadScopeContext;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Inject;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * Runs many short tasks that each make a few nested factory calls. Compares
+ * the default scope context with one that sets and removes a thread local
+ * around every call. Runs every task on its own virtual thread when the
+ * runtime has them and on a cached pool of platform threads otherwise.
+ * <p>
+ * Not a unit test - run the main method with the test classpath.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ */
+public class ScopeContextBenchmark {
+  private static final int TASKS = 20000;
+  private static final int CALLS = 8;
+  private static final int ROUNDS = 5;
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface SessionScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface RequestScoped {
+  }
+  
+  public interface SessionFactory {
+    Session create(String user);
+  }
+  
+  public interface RequestFactory {
+    Request create(String path);
+  }
+  
+  public static class Session {
+    @Inject @Arg(SessionScoped.class) String user;
+    @Inject RequestFactory requests;
+  }
+  
+  public static class Request {
+    @Inject @Arg(RequestScoped.class) String path;
+    @Inject Session session;
+    @Inject Response resp;
+  }
+  
+  public static class Response {
+    @Inject Session session;
+    @Inject Request req;
+  }
+  
+  /** The way the active instance used to be carried */
+  private static class RemovingContext implements ScopeContext {
+    private final ThreadLocal<DynamicScopeInstance> active = new ThreadLocal<DynamicScopeInstance>();
+    
+    public DynamicScopeInstance current() {
+      return active.get();
+    }
+
+    public <T> T call(DynamicScopeInstance instance, Callable<T> creation) throws Exception {
+      active.set(instance);
+      try {
+        return creation.call();
+      } finally {
+        active.remove();
+      }
+    }
+  }
+  
+  public static void main(String[] args) throws Exception {
+    SessionFactory dflt = sessions(ThreadScopeContext.DEFAULT);
+    SessionFactory removing = sessions(new RemovingContext());
+    
+    ExecutorService executor = executor();
+    try {
+      System.out.println("round\tdefault ns/call\tset and remove ns/call");
+      for (int r = 0; r < ROUNDS; r++) {
+        long fast = run(executor, dflt);
+        long slow = run(executor, removing);
+        System.out.println(r + "\t" + fast + "\t" + slow);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  private static SessionFactory sessions(ScopeContext context) {
+    return createInjector(new DynamicScopesModule(context) {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(Session.class).in(SessionScoped.class);
+        bind(RequestFactory.class).toScope(RequestScoped.class).in(SessionScoped.class);
+        bind(Request.class).in(RequestScoped.class);
+        bind(Response.class).in(RequestScoped.class);
+      }
+    }).getInstance(SessionFactory.class);
+  }
+  
+  private static long run(ExecutorService executor, final SessionFactory sessions) throws Exception {
+    List<Future<?>> done = new ArrayList<Future<?>>(TASKS);
+    
+    long start = System.nanoTime();
+    for (int t = 0; t < TASKS; t++) {
+      done.add(executor.submit(new Runnable() {
+        public void run() {
+          Session session = sessions.create("user");
+          for (int c = 1; c < CALLS; c++) {
+            session.requests.create("/");
+          }
+        }
+      }));
+    }
+    for (Future<?> f : done) {
+      f.get();
+    }
+    return (System.nanoTime() - start)/(TASKS*CALLS);
+  }
+  
+  /**
+   * @return a virtual thread per task executor if the runtime has one.
+   */
+  private static ExecutorService executor() {
+    try {
+      ExecutorService executor = (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      System.out.println("virtual threads");
+      return executor;
+    } catch (Exception e) {
+      System.out.println("platform threads - no virtual threads in this runtime");
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertEquals;
+import static org.unseen.guice.composite.scopes.Args.arg;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * Factory arguments must reach the objects that read them no matter how
+ * indirectly they are created.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class CreationPlanTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface SessionScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface CallScoped {
+  }
+  
+  public interface SessionFactory {
+    Session create(String user);
+  }
+  
+  public interface CallFactory {
+    Call create();
+  }
+  
+  public static class Session {
+    @Inject CallFactory calls;
+  }
+  
+  public static class Call {
+    @Inject Profile profile;
+  }
+  
+  /** Read only by a nested call that creates it lazily */
+  @SessionScoped
+  public static class Profile {
+    @Inject @Arg(SessionScoped.class) String user;
+  }
+  
+  /** Reaches the profile only through a provider */
+  public static class ProvidedCall extends Call {
+    String user;
+    
+    @Inject
+    void read(Provider<Profile> profiles) {
+      user = profiles.get().user;
+    }
+  }
+  
+  /** Reads the argument by key rather than through a dependency */
+  public static class LookupCall extends Call {
+    String user;
+    
+    @Inject
+    void lookup(Injector injector) {
+      user = injector.getInstance(Key.get(String.class, arg(SessionScoped.class)));
+    }
+  }
+  
+  /** Built by hand from a provider fetched by the module */
+  public static class HandmadeCall extends Call {
+    String user;
+  }
+  
+  @Test
+  public void testReadByNestedCall() {
+    SessionFactory fact = createInjector(module(Call.class)).getInstance(SessionFactory.class);
+    
+    assertEquals("alice", fact.create("alice").calls.create().profile.user);
+    assertEquals("bob", fact.create("bob").calls.create().profile.user);
+  }
+  
+  @Test
+  public void testReadThroughProvider() {
+    SessionFactory fact = createInjector(module(ProvidedCall.class)).getInstance(SessionFactory.class);
+    
+    assertEquals("alice", ((ProvidedCall) fact.create("alice").calls.create()).user);
+  }
+  
+  @Test
+  public void testReadByLookup() {
+    SessionFactory fact = createInjector(module(LookupCall.class)).getInstance(SessionFactory.class);
+    
+    assertEquals("alice", ((LookupCall) fact.create("alice").calls.create()).user);
+  }
+  
+  @Test
+  public void testReadByHandmadeProvider() {
+    SessionFactory fact = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(Session.class).in(SessionScoped.class);
+        bind(CallFactory.class).toScope(CallScoped.class).in(SessionScoped.class);
+        
+        /* Guice sees no dependency of the call on the argument */
+        final Provider<String> user = getProvider(Key.get(String.class, arg(SessionScoped.class)));
+        bind(Call.class).toProvider(new Provider<Call>() {
+          public Call get() {
+            HandmadeCall call = new HandmadeCall();
+            call.user = user.get();
+            return call;
+          }
+        }).in(CallScoped.class);
+      }
+    }).getInstance(SessionFactory.class);
+    
+    assertEquals("alice", ((HandmadeCall) fact.create("alice").calls.create()).user);
+  }
+  
+  private static Module module(final Class<? extends Call> call) {
+    return new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(Session.class).in(SessionScoped.class);
+        bind(CallFactory.class).toScope(CallScoped.class).in(SessionScoped.class);
+        if (call != Call.class) {
+          bind(Call.class).to(call).in(CallScoped.class);
+        } else {
+          bind(Call.class).in(CallScoped.class);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class FactoryInterningTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface PageScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface PanelScoped {
+  }
+  
+  public interface PageFactory {
+    Page create();
+  }
+  
+  public interface PanelFactory {
+    Panel create();
+  }
+  
+  public static class Page {
+    @Inject PanelFactory panels1;
+    @Inject PanelFactory panels2;
+  }
+  
+  public static class Panel {
+  }
+  
+  public static class Consumer {
+    @Inject PageFactory pages;
+  }
+  
+  @Test
+  public void testInterning() {
+    Injector inj = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(PageFactory.class).toScope(PageScoped.class);
+        bind(Page.class).in(PageScoped.class);
+        bind(PanelFactory.class).toScope(PanelScoped.class).in(PageScoped.class);
+        bind(Panel.class).in(PanelScoped.class);
+      }
+    });
+    
+    /* Root factories are shared */
+    assertSame(inj.getInstance(PageFactory.class), inj.getInstance(PageFactory.class));
+    assertSame(inj.getInstance(Consumer.class).pages, inj.getInstance(Consumer.class).pages);
+    
+    /* Nested factories are shared within the instance of the outer scope */
+    Page page1 = inj.getInstance(PageFactory.class).create();
+    Page page2 = inj.getInstance(PageFactory.class).create();
+    assertSame(page1.panels1, page1.panels2);
+    assertNotSame(page1.panels1, page2.panels1);
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.ProvisionException;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * Factories called from constructors run inline on the same thread.
+ * 
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class InlineCreationTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface SessionScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface RequestScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface AuditScoped {
+  }
+  
+  public interface SessionFactory {
+    Session create(String user);
+  }
+  
+  public interface RequestFactory {
+    Request create(String path);
+  }
+  
+  public interface AuditFactory {
+    Audit create();
+  }
+  
+  public static class Session {
+    final Request first;
+    @Inject Log log;
+    
+    @Inject
+    public Session(RequestFactory requests) {
+      /* Builds the child graph eagerly */
+      this.first = requests.create("/");
+    }
+  }
+  
+  public static class Request {
+    @Inject @Arg(SessionScoped.class) String user;
+    @Inject @Arg(RequestScoped.class) String path;
+    @Inject Log log;
+  }
+  
+  @SessionScoped
+  public static class Log {
+  }
+  
+  /** Builds an unrelated graph from its constructor */
+  public static class Audit {
+    final Session session;
+    
+    @Inject
+    public Audit(SessionFactory sessions) {
+      this.session = sessions.create("auditor");
+    }
+  }
+  
+  public static class FailingSession extends Session {
+    @Inject
+    public FailingSession(RequestFactory requests) {
+      super(requests);
+      try {
+        requests.create(null);
+      } catch (ProvisionException e) {
+        /* The session is still being created after the failed call */
+      }
+    }
+  }
+  
+  public static class StrictRequest extends Request {
+    @Inject
+    void check() {
+      if (path == null) {
+        throw new IllegalArgumentException("No path");
+      }
+    }
+  }
+  
+  @Test
+  public void testNestedInline() {
+    Injector inj = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(Session.class).in(SessionScoped.class);
+        bind(RequestFactory.class).toScope(RequestScoped.class).in(SessionScoped.class);
+        bind(Request.class).in(RequestScoped.class);
+      }
+    });
+    
+    Session s1 = inj.getInstance(SessionFactory.class).create("alice");
+    Session s2 = inj.getInstance(SessionFactory.class).create("bob");
+    
+    assertEquals("alice", s1.first.user);
+    assertEquals("/", s1.first.path);
+    assertEquals("bob", s2.first.user);
+    
+    /* The session resumed in its own scope instance after the inline call */
+    assertSame(s1.log, s1.first.log);
+    assertNotSame(s1.log, s2.log);
+  }
+  
+  @Test
+  public void testUnrelatedInline() {
+    Injector inj = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(Session.class).in(SessionScoped.class);
+        bind(RequestFactory.class).toScope(RequestScoped.class).in(SessionScoped.class);
+        bind(Request.class).in(RequestScoped.class);
+        bind(AuditFactory.class).toScope(AuditScoped.class);
+        bind(Audit.class).in(AuditScoped.class);
+      }
+    });
+    
+    Audit audit = inj.getInstance(AuditFactory.class).create();
+    assertEquals("auditor", audit.session.first.user);
+  }
+  
+  @Test
+  public void testFailedInline() {
+    Injector inj = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(Session.class).to(FailingSession.class).in(SessionScoped.class);
+        bind(RequestFactory.class).toScope(RequestScoped.class).in(SessionScoped.class);
+        bind(Request.class).to(StrictRequest.class).in(RequestScoped.class);
+      }
+    });
+    
+    Session session = inj.getInstance(SessionFactory.class).create("alice");
+    assertSame(session.log, session.first.log);
+    assertTrue(session instanceof FailingSession);
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class JustInTimeScopedTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface OrderScoped {
+  }
+  
+  interface OrderFactory {
+    Order create(String id);
+  }
+  
+  public static class Order {
+    @Inject @Arg(OrderScoped.class) String id;
+    @Inject Ledger ledger;
+    @Inject Line line;
+  }
+  
+  public static class Line {
+    @Inject Ledger ledger;
+  }
+  
+  /** Not bound - scoped just in time by its annotation */
+  @OrderScoped
+  public static class Ledger {
+    @Inject @Arg(OrderScoped.class) String id;
+  }
+  
+  @Test
+  public void testJustInTimeScoped() {
+    OrderFactory fact = Guice.createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(OrderFactory.class).toScope(OrderScoped.class);
+        bind(Order.class).in(OrderScoped.class);
+      }
+    }).getInstance(OrderFactory.class);
+    
+    Order a = fact.create("a");
+    Order b = fact.create("b");
+    
+    assertSame(a.ledger, a.line.ledger);
+    assertEquals("a", a.ledger.id);
+    assertEquals("b", b.ledger.id);
+    assertNotSame(a.ledger, b.ledger);
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.ScopeAnnotation;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class NestedClassScopeTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface SessionScoped {  
+  }
+  
+  public interface SessionFactory {
+    Session create(@Arg(name="user") String user);
+  }
+  
+  public interface RequestFactory {
+    Request create(@Arg(name="path") String path);
+  }
+  
+  @SessionScoped
+  public static class Session {
+    @Inject @Arg(name="user", value=SessionScoped.class) String user;
+    @Inject RequestFactory requests;
+  }
+  
+  public static class Request {
+    @Inject @Arg(name="path") String path;
+    @Inject Session session;
+  }
+  
+  public interface NamedSessionFactory {
+    NamedSession create(@Arg(name="user") String user);
+  }
+  
+  public interface NamedRequestFactory {
+    NamedRequest create(@Arg(name="path") String path);
+  }
+  
+  @SessionScoped
+  public static class NamedSession {
+    @Inject @Named("requests") NamedRequestFactory requests;
+  }
+  
+  public static class NamedRequest {
+    @Inject NamedSession session;
+  }
+  
+  @Test
+  public void testClassScopeInDynamicScope() {
+    Injector inj = Guice.createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(SessionFactory.class).toScope(SessionScoped.class);
+        bind(RequestFactory.class).toClassScope(Request.class).in(SessionScoped.class);
+      }
+    });
+    
+    SessionFactory fact = inj.getInstance(SessionFactory.class);
+    
+    Session alice = fact.create("alice");
+    Session bob = fact.create("bob");
+    
+    Request r1 = alice.requests.create("/a");
+    Request r2 = alice.requests.create("/b");
+    Request r3 = bob.requests.create("/a");
+    
+    assertTrue(r1 != r2);
+    assertTrue(r1.session == alice);
+    assertTrue(r2.session == alice);
+    assertTrue(r3.session == bob);
+    assertEquals("/b", r2.path);
+    assertEquals("bob", r3.session.user);
+  }
+  
+  @Test
+  public void testAnnotatedClassScope() {
+    Injector inj = Guice.createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(NamedSessionFactory.class).toScope(SessionScoped.class);
+        bind(NamedRequestFactory.class).annotatedWith(Names.named("requests"))
+          .toClassScope(NamedRequest.class).in(SessionScoped.class);
+      }
+    });
+    
+    NamedSession session = inj.getInstance(NamedSessionFactory.class).create("alice");
+    assertTrue(session.requests.create("/a").session == session);
+  }
+}
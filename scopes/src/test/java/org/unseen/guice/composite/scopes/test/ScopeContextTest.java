@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.Arg;
+import org.unseen.guice.composite.scopes.DynamicScopeInstance;
+import org.unseen.guice.composite.scopes.ScopeContext;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.CreationException;
+import com.google.inject.Inject;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class ScopeContextTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface JobScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface TaskScoped {
+  }
+  
+  public interface JobFactory {
+    Job create(String name);
+  }
+  
+  public interface TaskFactory {
+    Task create();
+  }
+  
+  public static class Job {
+    @Inject @Arg(JobScoped.class) String name;
+    @Inject TaskFactory tasks;
+  }
+  
+  public static class Task {
+    @Inject Job job;
+  }
+  
+  /** Carries the active instance explicitly and counts the activations */
+  private static class CountingContext implements ScopeContext {
+    private DynamicScopeInstance current;
+    private int calls;
+    
+    public DynamicScopeInstance current() {
+      return current;
+    }
+    
+    public <T> T call(DynamicScopeInstance instance, Callable<T> creation) throws Exception {
+      calls++;
+      DynamicScopeInstance outer = current;
+      current = instance;
+      try {
+        return creation.call();
+      } finally {
+        current = outer;
+      }
+    }
+  }
+  
+  @Test
+  public void testCustomContext() {
+    CountingContext counting = new CountingContext();
+    JobFactory fact = createInjector(new DynamicScopesModule(counting) {
+      @Override
+      protected void configure() {
+        bind(JobFactory.class).toScope(JobScoped.class);
+        bind(Job.class).in(JobScoped.class);
+        bind(TaskFactory.class).toScope(TaskScoped.class).in(JobScoped.class);
+        bind(Task.class).in(TaskScoped.class);
+      }
+    }).getInstance(JobFactory.class);
+    
+    Job job = fact.create("build");
+    Task task = job.tasks.create();
+    
+    assertEquals("build", job.name);
+    assertSame(job, task.job);
+    assertEquals(2, counting.calls);
+    assertNull(counting.current);
+  }
+  
+  /** Looks at the active instance the way code written for the old statics did */
+  public static class Probe {
+    final boolean active;
+    final DynamicScopeInstance instance;
+    
+    @Inject
+    @SuppressWarnings("deprecation")
+    public Probe() {
+      this.active = DynamicScopeInstance.isActive();
+      this.instance = DynamicScopeInstance.active();
+    }
+  }
+  
+  public interface ProbeFactory {
+    Probe create();
+  }
+  
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testDeprecatedStatics() {
+    ProbeFactory fact = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(ProbeFactory.class).toScope(JobScoped.class);
+        bind(Probe.class).in(JobScoped.class);
+      }
+    }).getInstance(ProbeFactory.class);
+    
+    Probe probe = fact.create();
+    assertTrue(probe.active);
+    assertNotNull(probe.instance);
+    assertFalse(DynamicScopeInstance.isActive());
+  }
+  
+  @Test
+  public void testContextsDoNotMix() {
+    final CountingContext counting = new CountingContext();
+    try {
+      createInjector(new DynamicScopesModule() {
+        @Override
+        protected void configure() {
+          bind(JobFactory.class).toScope(JobScoped.class);
+          bind(Job.class).in(JobScoped.class);
+          
+          install(new DynamicScopesModule(counting) {
+            @Override
+            protected void configure() {
+              bind(TaskFactory.class).toScope(TaskScoped.class).in(JobScoped.class);
+              bind(Task.class).in(TaskScoped.class);
+            }
+          });
+        }
+      });
+      fail();
+    } catch (CreationException e) {
+      /* Expected */
+    }
+  }
+}
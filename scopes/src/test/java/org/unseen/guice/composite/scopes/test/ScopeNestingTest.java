@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2009 Todor Boev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.unseen.guice.composite.scopes.test;
+
+import static com.google.inject.Guice.createInjector;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+import org.unseen.guice.composite.scopes.binder.DynamicScopesModule;
+
+import com.google.inject.CreationException;
+import com.google.inject.Inject;
+import com.google.inject.ScopeAnnotation;
+
+/**
+ * @author rinsvind@gmail.com (Todor Boev)
+ *
+ */
+public class ScopeNestingTest {
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface OuterScoped {
+  }
+  
+  @ScopeAnnotation
+  @Retention(RUNTIME)
+  @Target({TYPE, METHOD})
+  @interface InnerScoped {
+  }
+  
+  public interface OuterFactory {
+    Outer create();
+  }
+  
+  public interface InnerFactory {
+    Inner create();
+  }
+  
+  public static class Outer {
+    @Inject InnerFactory inners;
+  }
+  
+  public static class Inner {
+    @Inject Registry registry;
+  }
+  
+  /** Not bound - created lazily by the inner scope and cached in the outer */
+  @OuterScoped
+  public static class Registry {
+  }
+  
+  /** Reaches from the outer scope into the inner one */
+  public static class Leaking extends Outer {
+    @Inject Inner inner;
+  }
+  
+  @Test
+  public void testLazyOuterObject() {
+    OuterFactory fact = createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(OuterFactory.class).toScope(OuterScoped.class);
+        bind(Outer.class).in(OuterScoped.class);
+        bind(InnerFactory.class).toScope(InnerScoped.class).in(OuterScoped.class);
+        bind(Inner.class).in(InnerScoped.class);
+      }
+    }).getInstance(OuterFactory.class);
+    
+    Outer outer1 = fact.create();
+    Outer outer2 = fact.create();
+    
+    assertSame(outer1.inners.create().registry, outer1.inners.create().registry);
+    assertNotSame(outer1.inners.create().registry, outer2.inners.create().registry);
+  }
+  
+  @Test(expected = CreationException.class)
+  public void testNarrowIntoWide() {
+    createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(OuterFactory.class).toScope(OuterScoped.class);
+        bind(Outer.class).to(Leaking.class).in(OuterScoped.class);
+        bind(InnerFactory.class).toScope(InnerScoped.class).in(OuterScoped.class);
+        bind(Inner.class).in(InnerScoped.class);
+      }
+    });
+  }
+  
+  @Test(expected = CreationException.class)
+  public void testUnrelatedScopes() {
+    createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        /* Both scopes are roots - the inner one does not nest in the outer */
+        bind(OuterFactory.class).toScope(OuterScoped.class);
+        bind(Outer.class).in(OuterScoped.class);
+        bind(InnerFactory.class).toScope(InnerScoped.class);
+        bind(Inner.class).in(InnerScoped.class);
+      }
+    });
+  }
+  
+  @Test(expected = CreationException.class)
+  public void testCyclicNesting() {
+    createInjector(new DynamicScopesModule() {
+      @Override
+      protected void configure() {
+        bind(OuterFactory.class).toScope(OuterScoped.class).in(InnerScoped.class);
+        bind(Outer.class).in(OuterScoped.class);
+        bind(InnerFactory.class).toScope(InnerScoped.class).in(OuterScoped.class);
+        bind(Inner.class).in(InnerScoped.class);
+      }
+    });
+  }
+}